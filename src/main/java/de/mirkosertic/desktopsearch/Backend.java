@@ -18,9 +18,15 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 class Backend implements ConfigurationChangeListener {
 
@@ -32,18 +38,35 @@ class Backend implements ConfigurationChangeListener {
     private final Map<Configuration.CrawlLocation, DirectoryWatcher> locations;
     private final DirectoryListener directoryListener;
     private final ExecutorPool executorPool;
+    private final IndexingPipeline indexingPipeline;
     private final Notifier notifier;
     private final WatchServiceCache watchServiceCache;
     private final PreviewProcessor previewProcessor;
     private Configuration configuration;
+    private volatile IndexSnapshot crawlSnapshot;
+    private volatile ExtractionCache extractionCache;
+    private volatile ExtractionWatchdog extractionWatchdog;
+    private volatile ExtractionWorkerPool extractionWorkerPool;
+    private final Map<DirectoryWatcher, Integer> journalCheckpoints;
+    private final Object manifestLock;
+    private final Set<Path> failedDirectories;
+    private boolean crawlRunning;
 
     public Backend(Notifier aNotifier, Configuration aConfiguration, PreviewProcessor aPreviewProcessor) throws IOException {
         notifier = aNotifier;
         previewProcessor = aPreviewProcessor;
-        locations = new HashMap<>();
+        locations = new ConcurrentHashMap<>();
+        journalCheckpoints = new HashMap<>();
+        manifestLock = new Object();
+        failedDirectories = new HashSet<>();
         executorPool = new ExecutorPool();
         watchServiceCache = new WatchServiceCache();
         contentExtractor = new ContentExtractor(aConfiguration);
+        indexingPipeline = new IndexingPipeline(this::checkForModification, this::extractContent, this::buildDocument, this::writeDocument,
+                (aJob, aException) -> {
+                    jobFailed(aJob);
+                    aNotifier.showError("Error re-inxeding " + aJob.getFile().getFileName(), aException);
+                });
         directoryListener = new DirectoryListener() {
             @Override
             public void fileDeleted(Configuration.CrawlLocation aFileSystemLocation, Path aFile) {
@@ -59,50 +82,231 @@ class Backend implements ConfigurationChangeListener {
             }
 
             @Override
-            public void fileFoundByCrawler(Configuration.CrawlLocation aLocation, Path aFile) {
-                fileCreatedOrModified(aLocation, aFile, false);
+            public void fileFoundByCrawler(Configuration.CrawlLocation aLocation, Path aFile, BasicFileAttributes aAttributes) {
+                submit(new IndexingJob(aLocation, aFile, aAttributes));
+            }
+
+            @Override
+            public void fileUnchangedByCrawler(Configuration.CrawlLocation aLocation, Path aFile) {
+                IndexSnapshot theSnapshot = crawlSnapshot;
+                if (theSnapshot != null) {
+                    theSnapshot.markSeen(aFile.toString());
+                }
+            }
+
+            @Override
+            public void directoryRescanned(Configuration.CrawlLocation aLocation, Path aDirectory, Set<Path> aChildren) {
+                if (!aChildren.isEmpty()) {
+                    // One notification for the whole directory, its files are reindexed silently
+                    aNotifier.showInformation("Checking " + aChildren.size() + " entries of " + aDirectory.getFileName() + " again");
+                }
+                try {
+                    for (String theFileName : luceneIndexHandler.getFileNamesBelow(aDirectory.toString())) {
+                        Path theFile = Paths.get(theFileName);
+                        Path theChild = aDirectory.resolve(aDirectory.relativize(theFile).getName(0));
+                        if (!aChildren.contains(theChild)) {
+                            LOGGER.info("Removing file " + theFileName + " from index as it does not exist anymore.");
+                            luceneIndexHandler.removeFromIndex(theFileName);
+                        }
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Error removing deleted files in " + aDirectory, e);
+                }
             }
 
             @Override
             public void fileCreatedOrModified(Configuration.CrawlLocation aLocation, Path aFile) {
-                fileCreatedOrModified(aLocation, aFile, true);
+                submit(new IndexingJob(aLocation, aFile, false));
             }
 
-            private void fileCreatedOrModified(Configuration.CrawlLocation aLocation, Path aFile, boolean aShowInformation) {
-                String theFileName = aFile.toString();
-                String nameOnly = aFile.getFileName().toString();
-                if (!nameOnly.matches("^[.~].*|.*~$")) {
-                    try {
-                        progressListener.newFileFound(theFileName);
+            private void submit(IndexingJob aJob) {
+                try {
+                    // This blocks if the pipeline is saturated
+                    indexingPipeline.submit(aJob);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // The startup crawl registers the watchers while walking the locations anyway
+        configure(aConfiguration, !aConfiguration.isCrawlOnStartup());
+    }
 
-                        BasicFileAttributes theAttributes = Files.readAttributes(aFile, BasicFileAttributes.class);
-                        UpdateCheckResult theUpdateCheckResult = luceneIndexHandler.checkIfModified(theFileName, theAttributes.lastModifiedTime().toMillis());
-                        if (theUpdateCheckResult == UpdateCheckResult.UPDATED) {
+    private boolean checkForModification(IndexingJob aJob) throws IOException {
+        Path theFile = aJob.getFile();
+        String nameOnly = theFile.getFileName().toString();
+        if (nameOnly.matches("^[.~].*|.*~$")) {
+            return false;
+        }
 
-                            if (aShowInformation) {
-                                notifier.showInformation("Reindexed " + aFile.getFileName());
-                            }
+        String theFileName = theFile.toString();
+        progressListener.newFileFound(theFileName);
 
-                            Content theContent = contentExtractor.extractContentFrom(aFile, theAttributes);
-                            if (theContent != null && theContent.isKnown()) {
-                                luceneIndexHandler.addToIndex(aLocation.getId(), theContent);
-                            }
-                        }
-                    } catch (Exception e) {
-                        aNotifier.showError("Error re-inxeding " + aFile.getFileName(), e);
-                    }
+        // The crawler already got the attributes from the directory listing
+        BasicFileAttributes theAttributes = aJob.getAttributes();
+        if (theAttributes == null) {
+            theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        }
+        long theLastModified = theAttributes.lastModifiedTime().toMillis();
+
+        // The crawler checks against the snapshot taken at crawl start, watcher events
+        // need the current state of the index
+        IndexSnapshot theSnapshot = crawlSnapshot;
+        UpdateCheckResult theUpdateCheckResult;
+        if (aJob.isFoundByCrawler() && theSnapshot != null) {
+            theUpdateCheckResult = theSnapshot.checkIfModified(theFileName, theLastModified);
+        } else {
+            theUpdateCheckResult = luceneIndexHandler.checkIfModified(theFileName, theLastModified);
+        }
+        if (theUpdateCheckResult != UpdateCheckResult.UPDATED) {
+            return false;
+        }
+
+        if (extractionWatchdog.isQuarantined(theFile, theAttributes)) {
+            return false;
+        }
+
+        // Only the header of files with an unknown extension is read to decide this
+        if (!contentExtractor.isWorthExtracting(theFile)) {
+            return false;
+        }
+
+        if (!aJob.isFoundByCrawler()) {
+            notifier.showInformation("Reindexed " + theFile.getFileName());
+        }
+
+        aJob.setAttributes(theAttributes);
+        return true;
+    }
+
+    private boolean extractContent(IndexingJob aJob) throws IOException {
+        Content theContent = extract(aJob);
+        if (theContent == null) {
+            jobFailed(aJob);
+            return false;
+        }
+        if (!theContent.isKnown()) {
+            return false;
+        }
+        aJob.setContent(theContent);
+        return true;
+    }
+
+    /**
+     * Incremental crawls do not look at the files of unchanged directories, so a file that did not make it
+     * into the index would not be retried until its directory changes. Its directory is invalidated instead.
+     */
+    private void jobFailed(IndexingJob aJob) {
+        Path theDirectory = aJob.getFile().getParent();
+        synchronized (manifestLock) {
+            if (crawlRunning) {
+                // The manifests of the running crawl are written when it has finished
+                failedDirectories.add(theDirectory);
+                return;
+            }
+            File theManifestFile = CrawlManifest.fileFor(configuration.getConfigDirectory(), aJob.getLocation());
+            try {
+                CrawlManifest.invalidate(theManifestFile, theDirectory);
+            } catch (IOException e) {
+                LOGGER.error("Error invalidating " + theDirectory + " in crawl manifest " + theManifestFile, e);
+            }
+        }
+    }
+
+    private Content extract(IndexingJob aJob) throws IOException {
+        ExtractionCache theCache = extractionCache;
+        ExtractionWorkerPool theWorkerPool = extractionWorkerPool;
+        if (theWorkerPool == null) {
+            return extractInProcess(aJob, theCache);
+        }
+
+        // The worker process reads the file itself, so the cache key costs another read here
+        String theKey = null;
+        if (theCache != null) {
+            theKey = ExtractionCache.keyFor(aJob.getFile(), aJob.getAttributes().size());
+            Content theCachedContent = contentExtractor.restoreContentFrom(aJob.getFile(), aJob.getAttributes(), theCache, theKey);
+            if (theCachedContent != null) {
+                return theCachedContent;
+            }
+        }
+
+        // The worker process has its own heap, the pool enforces the timeout
+        try {
+            CachedContent theContent;
+            try {
+                theContent = theWorkerPool.extract(aJob.getFile(), aJob.getAttributes());
+            } catch (IOException e) {
+                // No worker could be started, which is not the fault of the file
+                LOGGER.debug("Extracting " + aJob.getFile() + " in process: " + e.getMessage());
+                return extractInProcess(aJob, theCache);
+            }
+            if (theContent == null) {
+                if (theWorkerPool != extractionWorkerPool) {
+                    // The configuration was changed during the extraction, so it is done again with the new one
+                    LOGGER.info("Extracting " + aJob.getFile() + " again after a configuration change");
+                    return extract(aJob);
                 }
+                return null;
             }
-        };
-        configurationUpdated(aConfiguration);
+            if (theKey != null) {
+                theCache.put(theKey, theContent);
+            }
+            return contentExtractor.restoreContentFrom(aJob.getFile(), aJob.getAttributes(), theContent);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Content extractInProcess(IndexingJob aJob, ExtractionCache aCache) {
+        // Copies of a file are only parsed once, the extractor hashes the bytes it reads for parsing
+        return extractionWatchdog.extract(aJob.getFile(), aJob.getAttributes(),
+                () -> contentExtractor.extractContentFrom(aJob.getFile(), aJob.getAttributes(), aCache));
+    }
+
+    private boolean buildDocument(IndexingJob aJob) throws IOException {
+        aJob.setDocument(luceneIndexHandler.buildDocument(aJob.getLocation().getId(), aJob.getContent()));
+        // The extracted content is no longer needed, so we do not keep it in the queues
+        aJob.setContent(null);
+        return true;
+    }
+
+    private boolean writeDocument(IndexingJob aJob) throws IOException {
+        luceneIndexHandler.writeDocument(aJob.getFile().toString(), aJob.getDocument());
+        return true;
     }
 
     @Override
     public void configurationUpdated(Configuration aConfiguration) throws IOException {
+        configure(aConfiguration, true);
+    }
+
+    private void configure(Configuration aConfiguration, boolean aRegisterWatchers) throws IOException {
 
         setIndexLocation(aConfiguration);
 
         configuration = aConfiguration;
+        if (aConfiguration.getExtractionCacheMegabytes() > 0) {
+            extractionCache = new ExtractionCache(ExtractionCache.directoryFor(aConfiguration.getConfigDirectory()),
+                    aConfiguration.getExtractionCacheMegabytes() * 1024L * 1024L);
+        } else {
+            extractionCache = null;
+        }
+        if (extractionWatchdog != null) {
+            extractionWatchdog.shutdown();
+        }
+        extractionWatchdog = new ExtractionWatchdog(ExtractionWatchdog.quarantineFileFor(aConfiguration.getConfigDirectory()),
+                aConfiguration.getExtractionTimeoutSeconds() * 1000L, aConfiguration.getExtractionAllocatedBytesPerInputByte());
+        if (extractionWorkerPool != null) {
+            extractionWorkerPool.shutdown();
+        }
+        if (aConfiguration.getExtractionWorkerProcesses() > 0) {
+            extractionWorkerPool = new ExtractionWorkerPool(aConfiguration, extractionWatchdog, aConfiguration.getExtractionWorkerProcesses(),
+                    aConfiguration.getExtractionWorkerHeapMegabytes(), aConfiguration.getExtractionWorkerRecycleAfter(),
+                    aConfiguration.getExtractionTimeoutSeconds() * 1000L);
+        } else {
+            extractionWorkerPool = null;
+        }
         locations.values().stream().forEach(DirectoryWatcher::stopWatching);
         locations.clear();
 
@@ -110,7 +314,7 @@ class Backend implements ConfigurationChangeListener {
             File theDirectory = e.getDirectory();
             if (theDirectory.exists() && theDirectory.isDirectory()) {
                 try {
-                    add(e);
+                    add(e, aRegisterWatchers);
                 } catch (IOException e1) {
                     LOGGER.error("Error setting filesystem location for " + theDirectory, e1);
                 }
@@ -122,8 +326,9 @@ class Backend implements ConfigurationChangeListener {
         this.progressListener = progressListener;
     }
 
-    private void add(Configuration.CrawlLocation aLocation) throws IOException {
-        locations.put(aLocation, new DirectoryWatcher(watchServiceCache, aLocation, DirectoryWatcher.DEFAULT_WAIT_FOR_ACTION, directoryListener, executorPool).startWatching());
+    private void add(Configuration.CrawlLocation aLocation, boolean aRegisterWatchers) throws IOException {
+        ChangeJournal theJournal = new ChangeJournal(ChangeJournal.fileFor(configuration.getConfigDirectory(), aLocation));
+        locations.put(aLocation, new DirectoryWatcher(watchServiceCache, aLocation, configuration.getWatcherDebounceMillis(), theJournal, directoryListener).startWatching(aRegisterWatchers));
     }
 
     private void setIndexLocation(Configuration aConfiguration) throws IOException {
@@ -132,38 +337,178 @@ class Backend implements ConfigurationChangeListener {
         }
         AnalyzerCache theCache = new AnalyzerCache(aConfiguration);
         luceneIndexHandler = new LuceneIndexHandler(aConfiguration, theCache, executorPool, previewProcessor);
+        luceneIndexHandler.setCommitListener(new CommitListener() {
+            @Override
+            public boolean isCheckpointPending() {
+                // Events which did not change the index still have to be removed from the journals
+                return indexingPipeline.isIdle() && locations.values().stream().anyMatch(DirectoryWatcher::isJournalCheckpointPending);
+            }
+
+            @Override
+            public void beforeCommit() {
+                // The journals can only be truncated if every journaled change was written
+                // to the index before the commit starts
+                journalCheckpoints.clear();
+                locations.values().forEach(theWatcher -> {
+                    int theCheckpoint = theWatcher.getJournalCheckpoint();
+                    if (theCheckpoint >= 0) {
+                        journalCheckpoints.put(theWatcher, theCheckpoint);
+                    }
+                });
+                if (!indexingPipeline.isIdle()) {
+                    journalCheckpoints.clear();
+                }
+            }
+
+            @Override
+            public void afterCommit() {
+                journalCheckpoints.forEach(DirectoryWatcher::journalCommitted);
+                journalCheckpoints.clear();
+            }
+        });
     }
 
-    public void crawlLocations() throws IOException {
+    public void crawlLocations(boolean aIncremental) throws IOException {
 
         luceneIndexHandler.crawlingStarts();
+        indexingPipeline.resetStatistics();
 
         Thread theRunner = new Thread() {
             @Override
             public void run() {
 
+                synchronized (manifestLock) {
+                    crawlRunning = true;
+                    failedDirectories.clear();
+                }
+
                 try {
                     luceneIndexHandler.cleanupDeadContent();
                 } catch (IOException e) {
                     LOGGER.error("Error removing dead content", e);
                 }
 
+                // Documents written with another schema are rewritten from the index instead of being extracted again
+                try {
+                    luceneIndexHandler.migrateSchema();
+                } catch (IOException e) {
+                    LOGGER.error("Error migrating the index schema, outdated documents will be reindexed", e);
+                }
+
+                try {
+                    crawlSnapshot = luceneIndexHandler.createSnapshot();
+                    LOGGER.info("Created index snapshot with " + crawlSnapshot.size() + " files");
+                } catch (IOException e) {
+                    LOGGER.error("Error creating index snapshot, falling back to index lookups", e);
+                }
+
+                // Skipping unchanged directories is only safe if the index matches the state of the
+                // last crawl. An empty index or documents requiring an upgrade need a full crawl
+                IndexSnapshot theCurrentSnapshot = crawlSnapshot;
+                boolean theIncremental = aIncremental && theCurrentSnapshot != null && theCurrentSnapshot.size() > 0
+                        && theCurrentSnapshot.getForcedUpdateCount() == 0;
+                LOGGER.info(theIncremental ? "Starting incremental crawl" : "Starting full crawl");
+
+                Map<Configuration.CrawlLocation, CrawlManifest> theCompletedLocations = new HashMap<>();
                 locations.values().stream().forEach(theWatcher -> {
+                    File theManifestFile = CrawlManifest.fileFor(configuration.getConfigDirectory(), theWatcher.getLocation());
+                    CrawlManifest thePreviousManifest = theIncremental ? CrawlManifest.load(theManifestFile) : new CrawlManifest();
                     try {
-                        theWatcher.crawl();
+                        theCompletedLocations.put(theWatcher.getLocation(), theWatcher.crawl(thePreviousManifest));
                     } catch (Exception e) {
                         LOGGER.error("Error while crawling", e);
                     }
                 });
 
+                try {
+                    indexingPipeline.awaitIdle();
+                } catch (InterruptedException e) {
+                    LOGGER.warn("Interrupted while waiting for the indexing pipeline");
+                }
+                indexingPipeline.logStatistics();
+                ExtractionCache theCache = extractionCache;
+                if (theCache != null) {
+                    LOGGER.info(theCache);
+                }
+                LOGGER.info(extractionWatchdog);
+                LOGGER.info(contentExtractor.getLanguageDetector());
+                LOGGER.info("Skipped " + contentExtractor.getRejectedFileCount() + " archives, disk images and unknown binary files");
+                ExtractionWorkerPool theWorkerPool = extractionWorkerPool;
+                if (theWorkerPool != null) {
+                    LOGGER.info(theWorkerPool);
+                }
+
+                IndexSnapshot theSnapshot = crawlSnapshot;
+                crawlSnapshot = null;
+                if (theSnapshot != null) {
+                    removeFilesNotSeenByCrawler(theSnapshot, theCompletedLocations);
+                }
+
+                try {
+                    luceneIndexHandler.crawlingFinished();
+                } catch (IOException e) {
+                    LOGGER.error("Error committing crawl results", e);
+                    // Without a durable index the manifests must not be written
+                    theCompletedLocations.clear();
+                }
+
+                // The manifests are written after the pipeline has drained. Directories with failed
+                // files are invalidated, so the next crawl checks them again
+                synchronized (manifestLock) {
+                    theCompletedLocations.entrySet().forEach(aEntry -> {
+                        failedDirectories.forEach(aEntry.getValue()::invalidate);
+                        File theManifestFile = CrawlManifest.fileFor(configuration.getConfigDirectory(), aEntry.getKey());
+                        try {
+                            aEntry.getValue().writeTo(theManifestFile);
+                        } catch (IOException e) {
+                            LOGGER.error("Error writing crawl manifest " + theManifestFile, e);
+                        }
+                    });
+                    if (!failedDirectories.isEmpty()) {
+                        LOGGER.info(failedDirectories.size() + " directories with failed files will be checked again by the next crawl");
+                    }
+                    failedDirectories.clear();
+                    crawlRunning = false;
+                }
+
                 progressListener.crawlingFinished();
             }
         };
         theRunner.start();
     }
 
+    private void removeFilesNotSeenByCrawler(IndexSnapshot aSnapshot, Map<Configuration.CrawlLocation, CrawlManifest> aLocations) {
+        // Only reachable locations are considered, and files below directories that could not
+        // be read are kept, as an unreachable directory should not wipe its documents from the index
+        for (Map.Entry<Configuration.CrawlLocation, CrawlManifest> theEntry : aLocations.entrySet()) {
+            String thePrefix = theEntry.getKey().getDirectory().toPath().toString() + File.separator;
+            List<String> theFailedPrefixes = theEntry.getValue().invalidDirectories().stream()
+                    .map(aDirectory -> aDirectory + File.separator)
+                    .collect(Collectors.toList());
+            if (!theFailedPrefixes.isEmpty()) {
+                LOGGER.info(theFailedPrefixes.size() + " directories of " + thePrefix + " could not be read, keeping their files");
+            }
+            for (String theFileName : aSnapshot.getUnseenFileNames(thePrefix)) {
+                if (theFailedPrefixes.stream().anyMatch(theFileName::startsWith)) {
+                    continue;
+                }
+                try {
+                    LOGGER.info("Removing file " + theFileName + " from index as it was not found by the crawler.");
+                    luceneIndexHandler.removeFromIndex(theFileName);
+                } catch (IOException e) {
+                    LOGGER.error("Error removing " + theFileName, e);
+                }
+            }
+        }
+    }
+
     public void shutdown() {
+        locations.values().forEach(DirectoryWatcher::stopWatching);
         luceneIndexHandler.shutdown();
+        ExtractionWorkerPool theWorkerPool = extractionWorkerPool;
+        if (theWorkerPool != null) {
+            theWorkerPool.shutdown();
+        }
     }
 
     public QueryResult performQuery(String aQueryString, String aBacklink, String aBasePath, Map<String, Object> aDrilldownDimensions) throws IOException {
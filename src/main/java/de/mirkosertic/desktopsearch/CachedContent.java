@@ -0,0 +1,111 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a content extraction that does not depend on the file it was extracted
+ * from, in a form Jackson can serialize.
+ */
+public class CachedContent {
+
+    public static class MetaData {
+
+        private String key;
+        private String value;
+        private boolean date;
+
+        private MetaData() {
+            // Needed by Jackson
+        }
+
+        public MetaData(String aKey, String aValue, boolean aDate) {
+            key = aKey;
+            value = aValue;
+            date = aDate;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public boolean isDate() {
+            return date;
+        }
+    }
+
+    private String fileContent;
+    private SupportedLanguage language;
+    private boolean known;
+    private int maxCharacters;
+    private List<MetaData> metadata;
+
+    private CachedContent() {
+        // Needed by Jackson
+        metadata = new ArrayList<>();
+    }
+
+    public CachedContent(Content aContent, int aMaxCharacters) {
+        this();
+        fileContent = aContent.getFileContent();
+        language = aContent.getLanguage();
+        known = aContent.isKnown();
+        maxCharacters = aMaxCharacters;
+        aContent.getMetadata().forEach(theEntry -> {
+            // The extension belongs to the file name, not to the content
+            if (!IndexFields.EXTENSION.equals(theEntry.key)) {
+                boolean theDate = theEntry.value instanceof ZonedDateTime;
+                metadata.add(new MetaData(theEntry.key, theEntry.value.toString(), theDate));
+            }
+        });
+    }
+
+    public String getFileContent() {
+        return fileContent;
+    }
+
+    public SupportedLanguage getLanguage() {
+        return language;
+    }
+
+    public boolean isKnown() {
+        return known;
+    }
+
+    public int getMaxCharacters() {
+        return maxCharacters;
+    }
+
+    public List<MetaData> getMetadata() {
+        return metadata;
+    }
+
+    public Content toContent(String aFileName, long aFileSize, long aLastModified, SupportedLanguage aLanguage) {
+        Content theContent = new Content(aFileName, fileContent, aFileSize, aLastModified, aLanguage, known);
+        for (MetaData theEntry : metadata) {
+            if (theEntry.date) {
+                theContent.addMetaData(theEntry.key, ZonedDateTime.parse(theEntry.value));
+            } else {
+                theContent.addMetaData(theEntry.key, theEntry.value);
+            }
+        }
+        return theContent;
+    }
+}
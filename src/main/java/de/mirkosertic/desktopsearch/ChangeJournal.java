@@ -0,0 +1,258 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.function.BiConsumer;
+
+/**
+ * Memory mapped, append only journal of the watcher events of a crawl location. Events stay in
+ * the journal until an index commit covers them, so pending changes survive a restart.
+ *
+ * The header holds the start and end offset of the valid records, written as a single long.
+ * A record is the length of the path, the event kind and the UTF-8 encoded path.
+ *
+ * Appending does not force the buffer to disk, so bursts of events do not stall the watcher. The mapped
+ * pages survive a crash of the process, and records of a torn tail are ignored by the replay.
+ * The journal is forced before each index commit and whenever it is truncated or closed. Once all
+ * records are truncated, the file is shrunk back to its initial size.
+ *
+ * The mapping stays valid after the channel is closed, so appending and truncating are ignored
+ * once the journal is closed, as the same file may already be mapped by a new journal.
+ */
+class ChangeJournal implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ChangeJournal.class);
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // A mapped buffer is addressed by int
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE;
+
+    private static final byte CREATE = 1;
+    private static final byte MODIFY = 2;
+    private static final byte DELETE = 3;
+    private static final byte OVERFLOW = 4;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int start;
+    private int end;
+    private boolean closed;
+
+    public ChangeJournal(File aFile) throws IOException {
+        aFile.getParentFile().mkdirs();
+        channel = FileChannel.open(aFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > INITIAL_CAPACITY && isEmpty(channel)) {
+            // A journal grown by a burst of events starts small again once nothing is pending
+            channel.truncate(INITIAL_CAPACITY);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, channel.size()));
+
+        long theHeader = buffer.getLong(0);
+        start = (int) (theHeader >>> 32);
+        end = (int) theHeader;
+        if (start < HEADER_SIZE || end < start || end > buffer.capacity()) {
+            // New or damaged journal
+            start = HEADER_SIZE;
+            end = HEADER_SIZE;
+            writeHeader();
+        }
+    }
+
+    public static File fileFor(File aConfigDirectory, Configuration.CrawlLocation aLocation) {
+        return new File(new File(aConfigDirectory, "journal"), aLocation.getId() + ".journal");
+    }
+
+    public synchronized void append(WatchEvent.Kind<?> aKind, Path aPath) {
+        if (closed) {
+            return;
+        }
+        byte[] thePath = aPath.toString().getBytes(StandardCharsets.UTF_8);
+        int theRecordSize = RECORD_HEADER_SIZE + thePath.length;
+        try {
+            ensureCapacity((long) end + theRecordSize);
+        } catch (IOException e) {
+            LOGGER.error("Cannot grow change journal, " + aPath + " will only be picked up by the next crawl", e);
+            return;
+        }
+        buffer.putInt(end, thePath.length);
+        buffer.put(end + 4, encode(aKind));
+        for (int i = 0; i < thePath.length; i++) {
+            buffer.put(end + RECORD_HEADER_SIZE + i, thePath[i]);
+        }
+        // The record becomes valid with the header update
+        end += theRecordSize;
+        writeHeader();
+    }
+
+    public synchronized void replay(BiConsumer<Path, WatchEvent.Kind<?>> aHandler) {
+        int theOffset = start;
+        int theCount = 0;
+        while (theOffset + RECORD_HEADER_SIZE <= end) {
+            int theLength = buffer.getInt(theOffset);
+            WatchEvent.Kind<?> theKind = decode(buffer.get(theOffset + 4));
+            if (theLength < 0 || theOffset + RECORD_HEADER_SIZE + theLength > end || theKind == null) {
+                LOGGER.warn("Change journal is damaged at offset " + theOffset + ", ignoring the rest");
+                break;
+            }
+            byte[] thePath = new byte[theLength];
+            for (int i = 0; i < theLength; i++) {
+                thePath[i] = buffer.get(theOffset + RECORD_HEADER_SIZE + i);
+            }
+            aHandler.accept(Paths.get(new String(thePath, StandardCharsets.UTF_8)), theKind);
+            theOffset += RECORD_HEADER_SIZE + theLength;
+            theCount++;
+        }
+        if (theCount > 0) {
+            LOGGER.info("Replayed " + theCount + " pending changes from journal");
+        }
+    }
+
+    public synchronized int getPosition() {
+        return end;
+    }
+
+    public synchronized boolean isEmpty() {
+        return start == end;
+    }
+
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    /**
+     * Removes all records before the given position, which must be taken from getPosition().
+     */
+    public synchronized void truncate(int aPosition) {
+        if (closed || aPosition <= start) {
+            return;
+        }
+        int theRemaining = end - aPosition;
+        if (theRemaining == 0) {
+            // Nothing is left, so the journal starts at the front again
+            start = HEADER_SIZE;
+            end = HEADER_SIZE;
+            writeHeader();
+            buffer.force();
+            shrink();
+            return;
+        }
+
+        // The header on disk must not reference the region the remaining records are moved to
+        start = aPosition;
+        writeHeader();
+        buffer.force();
+        if (theRemaining <= start - HEADER_SIZE) {
+            // The regions do not overlap, so the records referenced by the header on disk
+            // stay valid until the records at the front are on disk too
+            for (int i = 0; i < theRemaining; i++) {
+                buffer.put(HEADER_SIZE + i, buffer.get(start + i));
+            }
+            buffer.force();
+            start = HEADER_SIZE;
+            end = HEADER_SIZE + theRemaining;
+            writeHeader();
+            buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        channel.close();
+    }
+
+    private void shrink() {
+        if (buffer.capacity() <= INITIAL_CAPACITY) {
+            return;
+        }
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+            channel.truncate(INITIAL_CAPACITY);
+        } catch (IOException e) {
+            // Windows does not allow this while the old mapping is in use, the journal is shrunk when it is opened again
+            LOGGER.debug("Cannot shrink change journal: " + e.getMessage());
+        }
+    }
+
+    private static boolean isEmpty(FileChannel aChannel) throws IOException {
+        ByteBuffer theHeader = ByteBuffer.allocate(HEADER_SIZE);
+        aChannel.read(theHeader, 0);
+        long theValue = theHeader.getLong(0);
+        return (int) (theValue >>> 32) == (int) theValue;
+    }
+
+    private void ensureCapacity(long aCapacity) throws IOException {
+        if (aCapacity > buffer.capacity()) {
+            if (aCapacity > MAX_CAPACITY) {
+                throw new IOException("Change journal is full");
+            }
+            long theCapacity = buffer.capacity();
+            while (theCapacity < aCapacity) {
+                theCapacity *= 2;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(theCapacity, MAX_CAPACITY));
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putLong(0, ((long) start << 32) | (end & 0xffffffffL));
+    }
+
+    private static byte encode(WatchEvent.Kind<?> aKind) {
+        if (aKind == StandardWatchEventKinds.ENTRY_CREATE) {
+            return CREATE;
+        }
+        if (aKind == StandardWatchEventKinds.ENTRY_MODIFY) {
+            return MODIFY;
+        }
+        if (aKind == StandardWatchEventKinds.ENTRY_DELETE) {
+            return DELETE;
+        }
+        return OVERFLOW;
+    }
+
+    private static WatchEvent.Kind<?> decode(byte aKind) {
+        switch (aKind) {
+            case CREATE:
+                return StandardWatchEventKinds.ENTRY_CREATE;
+            case MODIFY:
+                return StandardWatchEventKinds.ENTRY_MODIFY;
+            case DELETE:
+                return StandardWatchEventKinds.ENTRY_DELETE;
+            case OVERFLOW:
+                return StandardWatchEventKinds.OVERFLOW;
+            default:
+                return null;
+        }
+    }
+}
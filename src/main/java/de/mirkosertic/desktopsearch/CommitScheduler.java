@@ -0,0 +1,213 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the index is committed. Searches see new documents through near real time
+ * refreshes, so a commit is only needed for durability. While crawling, commits are batched
+ * by document count, bytes or elapsed time to avoid an fsync storm and lots of tiny segments.
+ */
+class CommitScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(CommitScheduler.class);
+
+    private static final long TICK_MILLIS = 500;
+
+    static class CommitPolicy {
+
+        private final long maxDocuments;
+        private final long maxBytes;
+        private final long maxMillis;
+
+        public CommitPolicy(long aMaxDocuments, long aMaxBytes, long aMaxMillis) {
+            maxDocuments = aMaxDocuments;
+            maxBytes = aMaxBytes;
+            maxMillis = aMaxMillis;
+        }
+
+        public boolean isCommitDue(long aDocuments, long aBytes, long aMillis) {
+            return aDocuments >= maxDocuments || aBytes >= maxBytes || aMillis >= maxMillis;
+        }
+    }
+
+    static final CommitPolicy STEADY_STATE = new CommitPolicy(1000, 16 * 1024 * 1024, 1000);
+    static final CommitPolicy CRAWLING = new CommitPolicy(50000, 512 * 1024 * 1024, 60000);
+
+    private final IndexWriter indexWriter;
+    private final SearcherManager searcherManager;
+    private final Thread thread;
+    private final AtomicLong documentsSinceCommit;
+    private final AtomicLong bytesSinceCommit;
+    private final AtomicLong firstChangeSinceCommit;
+    private final CountDownLatch shutdownSignal;
+    private volatile CommitPolicy policy;
+    private volatile CommitListener commitListener;
+
+    private volatile long commitCount;
+    private volatile long totalCommitNanos;
+    private volatile long lastCommitNanos;
+    private volatile long maxCommitNanos;
+    private volatile int segmentCount;
+
+    public CommitScheduler(IndexWriter aIndexWriter, SearcherManager aSearcherManager) {
+        indexWriter = aIndexWriter;
+        searcherManager = aSearcherManager;
+        documentsSinceCommit = new AtomicLong();
+        bytesSinceCommit = new AtomicLong();
+        firstChangeSinceCommit = new AtomicLong();
+        policy = STEADY_STATE;
+        shutdownSignal = new CountDownLatch(1);
+        thread = new Thread("Lucene Commit Thread") {
+            @Override
+            public void run() {
+                // The thread is never interrupted, as an interrupted commit leaves the IndexWriter unusable
+                try {
+                    while (!shutdownSignal.await(TICK_MILLIS, TimeUnit.MILLISECONDS)) {
+                        try {
+                            tick();
+                        } catch (IOException e) {
+                            LOGGER.error("Error committing index", e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void shutdown() {
+        shutdownSignal.countDown();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setCommitListener(CommitListener aListener) {
+        commitListener = aListener;
+    }
+
+    public void crawlingStarts() {
+        policy = CRAWLING;
+    }
+
+    /**
+     * Switches back to steady state and makes the crawl durable before this method returns.
+     */
+    public void crawlingFinished() throws IOException {
+        policy = STEADY_STATE;
+        commit();
+    }
+
+    public void documentChanged(long aBytes) {
+        documentsSinceCommit.incrementAndGet();
+        bytesSinceCommit.addAndGet(aBytes);
+        firstChangeSinceCommit.compareAndSet(0, System.currentTimeMillis());
+    }
+
+    private void tick() throws IOException {
+        if (!indexWriter.hasUncommittedChanges()) {
+            // The listener is not bothered while idle, unless it has something to do
+            CommitListener theListener = commitListener;
+            if (theListener != null && theListener.isCheckpointPending()) {
+                commit();
+            }
+            return;
+        }
+        // Not every change is reported, e.g. the batched removal of dead content
+        firstChangeSinceCommit.compareAndSet(0, System.currentTimeMillis());
+        long theElapsed = System.currentTimeMillis() - firstChangeSinceCommit.get();
+        if (policy.isCommitDue(documentsSinceCommit.get(), bytesSinceCommit.get(), theElapsed)) {
+            commit();
+        }
+    }
+
+    private synchronized void commit() throws IOException {
+        CommitListener theListener = commitListener;
+        if (theListener != null) {
+            theListener.beforeCommit();
+        }
+        if (indexWriter.hasUncommittedChanges()) {
+            documentsSinceCommit.set(0);
+            bytesSinceCommit.set(0);
+            firstChangeSinceCommit.set(0);
+
+            long theStart = System.nanoTime();
+            indexWriter.commit();
+            long theDuration = System.nanoTime() - theStart;
+
+            commitCount++;
+            totalCommitNanos += theDuration;
+            lastCommitNanos = theDuration;
+            maxCommitNanos = Math.max(maxCommitNanos, theDuration);
+            segmentCount = countSegments();
+            LOGGER.debug("Commit took " + TimeUnit.NANOSECONDS.toMillis(theDuration) + "ms, " + segmentCount + " segments");
+        }
+        if (theListener != null) {
+            theListener.afterCommit();
+        }
+    }
+
+    private int countSegments() throws IOException {
+        searcherManager.maybeRefresh();
+        IndexSearcher theSearcher = searcherManager.acquire();
+        try {
+            return theSearcher.getIndexReader().leaves().size();
+        } finally {
+            searcherManager.release(theSearcher);
+        }
+    }
+
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    public long getLastCommitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastCommitNanos);
+    }
+
+    public long getMaxCommitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxCommitNanos);
+    }
+
+    public double getAverageCommitMillis() {
+        long theCount = commitCount;
+        return theCount == 0 ? 0 : totalCommitNanos / 1000000d / theCount;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Commits : " + getCommitCount() + ", average " + (long) getAverageCommitMillis() + "ms, max " + getMaxCommitMillis()
+                + "ms, last " + getLastCommitMillis() + "ms, segments : " + getSegmentCount();
+    }
+}
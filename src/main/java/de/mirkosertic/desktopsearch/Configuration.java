@@ -18,14 +18,20 @@ import java.util.*;
 public class Configuration {
 
     public static class CrawlLocation {
+
+        public static final int DEFAULT_PARALLELISM = 4;
+
         private String id;
         private File directory;
+        private int parallelism;
 
         private CrawlLocation() {
             // Needed by Jackson
+            parallelism = DEFAULT_PARALLELISM;
         }
 
         public CrawlLocation(String aID, File aDirectory) {
+            this();
             directory = aDirectory;
             id = aID;
         }
@@ -38,6 +44,10 @@ public class Configuration {
             return directory;
         }
 
+        public int getParallelism() {
+            return parallelism;
+        }
+
         @Override
         public String toString() {
             return directory.toString();
@@ -52,6 +62,19 @@ public class Configuration {
     private boolean suggestionInOrder;
     private boolean showSimilarDocuments;
     private boolean crawlOnStartup;
+    private int watcherDebounceMillis;
+    private int maxCharactersPerDocument;
+    private int extractionCacheMegabytes;
+    private int extractionTimeoutSeconds;
+    private int extractionAllocatedBytesPerInputByte;
+    private int extractionWorkerProcesses;
+    private int extractionWorkerRecycleAfter;
+    private int extractionWorkerHeapMegabytes;
+    private boolean leanIndexSchema;
+    private int searcherMaxStaleMillis;
+    private int searcherMinStaleMillis;
+    private int queryResultCacheEntries;
+    private int queryResultCacheMegabytes;
     private List<CrawlLocation> crawlLocations;
     private Set<SupportedLanguage> enabledLanguages;
     private Set<SupportedDocumentType> enabledDocumentTypes;
@@ -68,6 +91,19 @@ public class Configuration {
         suggestionInOrder = true;
         showSimilarDocuments = false;
         crawlOnStartup = true;
+        watcherDebounceMillis = 5000;
+        maxCharactersPerDocument = 100000;
+        extractionCacheMegabytes = 256;
+        extractionTimeoutSeconds = 120;
+        extractionAllocatedBytesPerInputByte = 1000;
+        extractionWorkerProcesses = 0;
+        extractionWorkerRecycleAfter = 500;
+        extractionWorkerHeapMegabytes = 1024;
+        leanIndexSchema = false;
+        searcherMaxStaleMillis = 1000;
+        searcherMinStaleMillis = 25;
+        queryResultCacheEntries = 64;
+        queryResultCacheMegabytes = 16;
         crawlLocations = new ArrayList<>();
         enabledLanguages = new HashSet<>();
         enabledDocumentTypes = new HashSet<>();
@@ -118,6 +154,19 @@ public class Configuration {
         suggestionWindowAfter = aConfiguration.suggestionWindowAfter;
         suggestionInOrder = aConfiguration.suggestionInOrder;
         showSimilarDocuments = aConfiguration.showSimilarDocuments;
+        watcherDebounceMillis = aConfiguration.watcherDebounceMillis;
+        maxCharactersPerDocument = aConfiguration.maxCharactersPerDocument;
+        extractionCacheMegabytes = aConfiguration.extractionCacheMegabytes;
+        extractionTimeoutSeconds = aConfiguration.extractionTimeoutSeconds;
+        extractionAllocatedBytesPerInputByte = aConfiguration.extractionAllocatedBytesPerInputByte;
+        extractionWorkerProcesses = aConfiguration.extractionWorkerProcesses;
+        extractionWorkerRecycleAfter = aConfiguration.extractionWorkerRecycleAfter;
+        extractionWorkerHeapMegabytes = aConfiguration.extractionWorkerHeapMegabytes;
+        leanIndexSchema = aConfiguration.leanIndexSchema;
+        searcherMaxStaleMillis = aConfiguration.searcherMaxStaleMillis;
+        searcherMinStaleMillis = aConfiguration.searcherMinStaleMillis;
+        queryResultCacheEntries = aConfiguration.queryResultCacheEntries;
+        queryResultCacheMegabytes = aConfiguration.queryResultCacheMegabytes;
         crawlLocations = new ArrayList<>(aConfiguration.crawlLocations);
         enabledLanguages = new HashSet<>(aConfiguration.enabledLanguages);
         enabledDocumentTypes = new HashSet<>(aConfiguration.enabledDocumentTypes);
@@ -182,6 +231,58 @@ public class Configuration {
         return crawlOnStartup;
     }
 
+    public int getWatcherDebounceMillis() {
+        return watcherDebounceMillis;
+    }
+
+    public int getMaxCharactersPerDocument() {
+        return maxCharactersPerDocument;
+    }
+
+    public int getExtractionCacheMegabytes() {
+        return extractionCacheMegabytes;
+    }
+
+    public int getExtractionTimeoutSeconds() {
+        return extractionTimeoutSeconds;
+    }
+
+    public int getExtractionAllocatedBytesPerInputByte() {
+        return extractionAllocatedBytesPerInputByte;
+    }
+
+    public int getExtractionWorkerProcesses() {
+        return extractionWorkerProcesses;
+    }
+
+    public int getExtractionWorkerRecycleAfter() {
+        return extractionWorkerRecycleAfter;
+    }
+
+    public int getExtractionWorkerHeapMegabytes() {
+        return extractionWorkerHeapMegabytes;
+    }
+
+    public boolean isLeanIndexSchema() {
+        return leanIndexSchema;
+    }
+
+    public int getSearcherMaxStaleMillis() {
+        return searcherMaxStaleMillis;
+    }
+
+    public int getSearcherMinStaleMillis() {
+        return searcherMinStaleMillis;
+    }
+
+    public int getQueryResultCacheEntries() {
+        return queryResultCacheEntries;
+    }
+
+    public int getQueryResultCacheMegabytes() {
+        return queryResultCacheMegabytes;
+    }
+
     public Configuration addLocation(CrawlLocation aCrawlLocation) {
         Configuration theConfiguration = new Configuration(this);
         theConfiguration.crawlLocations.add(aCrawlLocation);
@@ -265,4 +366,4 @@ public class Configuration {
         theConfiguration.crawlOnStartup = aValue;
         return theConfiguration;
     }
-}
\ No newline at end of file
+}
@@ -14,132 +14,146 @@ package de.mirkosertic.desktopsearch;
 
 import org.apache.log4j.Logger;
 import org.apache.tika.Tika;
-import org.apache.tika.language.LanguageIdentifier;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypes;
+
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.text.NumberFormat;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 class ContentExtractor {
 
     private static final Logger LOGGER = Logger.getLogger(ContentExtractor.class);
 
+    private static final int SNIFF_LENGTH = 8192;
+    private static final int IN_MEMORY_LIMIT = 1024 * 1024 * 4;
+
+    // Archives, disk images and the like would be parsed only to be discarded
+    private static final Set<MediaType> REJECTED_TYPES;
+
+    static {
+        MediaTypeRegistry theRegistry = MimeTypes.getDefaultMimeTypes().getMediaTypeRegistry();
+        REJECTED_TYPES = Arrays.stream(new String[] {"application/octet-stream", "application/zip", "application/java-archive",
+                "application/x-tar", "application/gzip", "application/x-bzip", "application/x-bzip2", "application/x-xz",
+                "application/x-compress", "application/x-7z-compressed", "application/x-rar-compressed",
+                "application/x-iso9660-image", "application/x-apple-diskimage", "application/x-vhd", "application/x-vmdk",
+                "application/x-virtualbox-vdi"}).map(t -> theRegistry.normalize(MediaType.parse(t))).collect(Collectors.toSet());
+    }
+
     private final Tika tika;
-    private final DateTimeFormatter format1 = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy");
-    private final DateTimeFormatter format2 = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss"); // Date/Time in jpegs
     private final Configuration configuration;
+    private final LanguageDetector languageDetector;
+    private final MetadataNormalizer metadataNormalizer;
+    private final AtomicLong rejectedFiles;
+    private final ThreadLocal<byte[]> readBuffer;
 
     public ContentExtractor(Configuration aConfiguration) {
         configuration = aConfiguration;
         tika = new Tika();
+        languageDetector = new LanguageDetector();
+        metadataNormalizer = new MetadataNormalizer(aConfiguration);
+        rejectedFiles = new AtomicLong();
+        readBuffer = ThreadLocal.withInitial(() -> new byte[SNIFF_LENGTH]);
     }
 
-    private String harmonizeMetaDataName(String aName) {
-        int p = aName.indexOf(":");
-        if (p>0) {
-            aName = aName.substring(p+1);
-        }
-
-        String theReplacement = configuration.getMetaDataNameReplacement().get(aName);
-        if (theReplacement != null) {
-            return theReplacement;
-        }
-
-        return aName.replace(" ", "-");
-    }
-
-    private ZonedDateTime parseDate(String aString) {
-        try {
-            ZonedDateTime date = ZonedDateTime.parse(aString, format1);
-            return date;
-        } catch (DateTimeParseException exc) {
-        }
-        try {
-            LocalDateTime local = LocalDateTime.parse(aString);
-            ZonedDateTime date = ZonedDateTime.of(local, ZoneId.systemDefault());
-            return date;
-        } catch (DateTimeParseException exc) {
-        }
-        try {
-            LocalDateTime local = LocalDateTime.parse(aString, format2);
-            ZonedDateTime date = ZonedDateTime.of(local, ZoneId.systemDefault());
-            return date;
-        } catch (DateTimeParseException exc) {
-        }
-        return null;
+    public Content extractContentFrom(Path aFile, BasicFileAttributes aBasicFileAttributes) {
+        return extractContentFrom(aFile, aBasicFileAttributes, null);
     }
 
-    public Content extractContentFrom(Path aFile, BasicFileAttributes aBasicFileAttributes) {
+    /**
+     * Copies of a file are only parsed once if a cache is given. Small files are hashed from the bytes read for parsing.
+     */
+    public Content extractContentFrom(Path aFile, BasicFileAttributes aBasicFileAttributes, ExtractionCache aCache) {
         try {
             Metadata theMetaData = new Metadata();
 
+            // The extracted text is limited, everything beyond is not indexed
+            int theMaxCharacters = configuration.getMaxCharactersPerDocument();
             String theStringData;
-            // Files under 10 Meg are read into memory as a whole
-            if (aBasicFileAttributes.size() < 1024 * 1024 * 4) {
-                byte[] theData = Files.readAllBytes(aFile);
-                theStringData = tika.parseToString(new ByteArrayInputStream(theData), theMetaData);
+            String theCacheKey = null;
+            // Files under 4 Meg are read into memory as a whole
+            int theLength = aBasicFileAttributes.size() < IN_MEMORY_LIMIT ? readFully(aFile, (int) aBasicFileAttributes.size()) : -1;
+            if (theLength >= 0) {
+                byte[] theData = readBuffer.get();
+                if (aCache != null) {
+                    theCacheKey = ExtractionCache.keyFor(theData, theLength);
+                    Content theCachedContent = restoreContentFrom(aFile, aBasicFileAttributes, aCache, theCacheKey);
+                    if (theCachedContent != null) {
+                        return theCachedContent;
+                    }
+                }
+                theStringData = tika.parseToString(new ByteArrayInputStream(theData, 0, theLength), theMetaData, theMaxCharacters);
             } else {
+                if (aCache != null) {
+                    theCacheKey = ExtractionCache.keyFor(aFile, aBasicFileAttributes.size());
+                    Content theCachedContent = restoreContentFrom(aFile, aBasicFileAttributes, aCache, theCacheKey);
+                    if (theCachedContent != null) {
+                        return theCachedContent;
+                    }
+                }
                 try (InputStream theStream = Files.newInputStream(aFile, StandardOpenOption.READ)) {
-                    theStringData = tika.parseToString(new BufferedInputStream(theStream), theMetaData);
+                    theStringData = tika.parseToString(new BufferedInputStream(theStream), theMetaData, theMaxCharacters);
                 }
             }
 
-            LanguageIdentifier theLanguageIdentifier = new LanguageIdentifier(theStringData);
+            String theDetectedLanguage = languageDetector.detectLanguage(aFile, theStringData);
 
             FileTime theFileTime = aBasicFileAttributes.lastModifiedTime();
             SupportedLanguage theLanguage = SupportedLanguage.getDefault();
             try {
-                theLanguage = SupportedLanguage.valueOf(theLanguageIdentifier.getLanguage());
+                theLanguage = SupportedLanguage.valueOf(theDetectedLanguage);
                 if (!configuration.getEnabledLanguages().contains(theLanguage)) {
                     theLanguage = SupportedLanguage.getDefault();
                 }
             } catch (Exception e) {
-                LOGGER.info("Language "+theLanguageIdentifier.getLanguage()+" was detected, but is not supported");
+                LOGGER.info("Language "+theDetectedLanguage+" was detected, but is not supported");
             }
             Content theContent = new Content(aFile.toString(), theStringData, aBasicFileAttributes.size(), theFileTime.toMillis(), theLanguage,
                     theMetaData.get(Metadata.CONTENT_TYPE).compareTo("application/octet-stream") != 0);
             for (String theName : theMetaData.names()) {
 
                 String theMetaDataValue = theMetaData.get(theName);
+                String theKey = metadataNormalizer.normalizeName(theName);
 
                 // Try to detect if this is a date
-                ZonedDateTime date = parseDate(theMetaDataValue);
+                ZonedDateTime date = metadataNormalizer.parseDate(theMetaDataValue);
                 if (null != date) {
-                    theContent.addMetaData(harmonizeMetaDataName(theName.toLowerCase()), date);
+                    theContent.addMetaData(theKey, date);
                     continue;
                 }
 
-                if (theName.equals("Windows XP Keywords")) {
+                if (metadataNormalizer.isKeywordList(theName)) {
                     // we have to do it here and not in LuceneIndexHandler
                     // as other "keywords" may but should not contain "legit" ";"
-                    String[] theKeywords = theMetaDataValue.split(";|,");
-                    for (String aKeyword: theKeywords)
-                        theContent.addMetaData(harmonizeMetaDataName(theName.toLowerCase()), aKeyword);
+                    for (String aKeyword: metadataNormalizer.splitKeywords(theMetaDataValue))
+                        theContent.addMetaData(theKey, aKeyword);
                     continue;
                 }
 
-                theContent.addMetaData(harmonizeMetaDataName(theName.toLowerCase()), theMetaDataValue);
-//                        System.out.printf("%s is not parsable!\n", theMetaDataValue);
+                theContent.addMetaData(theKey, theMetaDataValue);
             }
 
-            String theFileName = aFile.getFileName().toString();
-            int p = theFileName.lastIndexOf(".");
-            if (p > 0) {
-                String theExtension = theFileName.substring(p + 1);
-                theContent.addMetaData(IndexFields.EXTENSION, theExtension.toLowerCase());
-            }
+            addFileNameMetaData(aFile, theContent);
 
+            if (theCacheKey != null) {
+                aCache.put(theCacheKey, new CachedContent(theContent, theMaxCharacters));
+            }
             return theContent;
         } catch (Exception e) {
             LOGGER.error("Error extracting content of " + aFile, e);
@@ -148,6 +162,96 @@ class ContentExtractor {
         return null;
     }
 
+    public Content restoreContentFrom(Path aFile, BasicFileAttributes aBasicFileAttributes, CachedContent aCachedContent) {
+        SupportedLanguage theLanguage = aCachedContent.getLanguage();
+        if (!configuration.getEnabledLanguages().contains(theLanguage)) {
+            theLanguage = SupportedLanguage.getDefault();
+        }
+        Content theContent = aCachedContent.toContent(aFile.toString(), aBasicFileAttributes.size(),
+                aBasicFileAttributes.lastModifiedTime().toMillis(), theLanguage);
+        addFileNameMetaData(aFile, theContent);
+        return theContent;
+    }
+
+    /**
+     * Returns null if the cache has no entry extracted with the current character limit.
+     */
+    public Content restoreContentFrom(Path aFile, BasicFileAttributes aBasicFileAttributes, ExtractionCache aCache, String aKey) {
+        CachedContent theCachedContent = aCache.get(aKey, configuration.getMaxCharactersPerDocument());
+        if (theCachedContent == null) {
+            return null;
+        }
+        return restoreContentFrom(aFile, aBasicFileAttributes, theCachedContent);
+    }
+
+    private void addFileNameMetaData(Path aFile, Content aContent) {
+        String theFileName = aFile.getFileName().toString();
+        int p = theFileName.lastIndexOf(".");
+        if (p > 0) {
+            String theExtension = theFileName.substring(p + 1);
+            aContent.addMetaData(IndexFields.EXTENSION, theExtension.toLowerCase());
+        }
+    }
+
+    /**
+     * Reads the file into a buffer reused by the current thread, so small files do not allocate an array each.
+     * Returns -1 if the file reaches the in memory limit, as it grew or its size was reported wrong. It has to be
+     * streamed then, so the buffer never grows beyond the limit.
+     */
+    int readFully(Path aFile, int aSize) throws IOException {
+        byte[] theBuffer = readBuffer.get();
+        if (theBuffer.length <= aSize) {
+            theBuffer = new byte[Math.min(aSize + 1, IN_MEMORY_LIMIT)];
+            readBuffer.set(theBuffer);
+        }
+        int theLength = 0;
+        try (InputStream theStream = Files.newInputStream(aFile, StandardOpenOption.READ)) {
+            int theRead;
+            while ((theRead = theStream.read(theBuffer, theLength, theBuffer.length - theLength)) >= 0) {
+                theLength += theRead;
+                if (theLength == theBuffer.length) {
+                    if (theLength >= IN_MEMORY_LIMIT) {
+                        return -1;
+                    }
+                    // The file grew since its attributes were read
+                    theBuffer = Arrays.copyOf(theBuffer, Math.min(theBuffer.length * 2, IN_MEMORY_LIMIT));
+                    readBuffer.set(theBuffer);
+                }
+            }
+        }
+        return theLength;
+    }
+
+    public boolean isWorthExtracting(Path aFile) throws IOException {
+        String theFileName = aFile.getFileName().toString();
+        if (supportsFile(theFileName)) {
+            return true;
+        }
+
+        // Only the header is read, the file name is a hint for container formats like xlsx
+        ByteBuffer theHeader = ByteBuffer.allocate(SNIFF_LENGTH);
+        try (FileChannel theChannel = FileChannel.open(aFile, StandardOpenOption.READ)) {
+            while (theHeader.hasRemaining() && theChannel.read(theHeader) >= 0) {
+            }
+        }
+        String theType = tika.detect(Arrays.copyOf(theHeader.array(), theHeader.position()), theFileName);
+        MediaType theMediaType = MediaType.parse(theType);
+        if (theMediaType == null || REJECTED_TYPES.contains(theMediaType.getBaseType())) {
+            rejectedFiles.incrementAndGet();
+            LOGGER.debug("Skipping " + aFile + " of type " + theType);
+            return false;
+        }
+        return true;
+    }
+
+    public long getRejectedFileCount() {
+        return rejectedFiles.get();
+    }
+
+    public LanguageDetector getLanguageDetector() {
+        return languageDetector;
+    }
+
     public boolean supportsFile(String aFilename) {
         for (SupportedDocumentType theType : configuration.getEnabledDocumentTypes()) {
             if (theType.supports(aFilename)) {
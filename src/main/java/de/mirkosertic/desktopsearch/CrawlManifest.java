@@ -0,0 +1,157 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Directory state of a crawl location as seen by the last clean crawl. A directory whose
+ * last modified time and child count did not change has no added, removed or renamed
+ * children, so its files do not need to be checked again.
+ *
+ * Modifying a file in place does not change its directory. While the application is running the
+ * watcher and its change journal pick such modifications up, modifications made while it was not
+ * running are only found by a full crawl using the Recrawl menu item.
+ */
+class CrawlManifest {
+
+    private static final Logger LOGGER = Logger.getLogger(CrawlManifest.class);
+
+    // Never matches the state of an existing directory
+    private static final int INVALID = -1;
+
+    public static class DirectoryState {
+
+        private long lastModified;
+        private int childCount;
+
+        private DirectoryState() {
+            // Needed by Jackson
+        }
+
+        public DirectoryState(long aLastModified, int aChildCount) {
+            lastModified = aLastModified;
+            childCount = aChildCount;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public int getChildCount() {
+            return childCount;
+        }
+
+        public boolean matches(long aLastModified, int aChildCount) {
+            return lastModified == aLastModified && childCount == aChildCount;
+        }
+    }
+
+    private Map<String, DirectoryState> directories;
+
+    public CrawlManifest() {
+        directories = new ConcurrentHashMap<>();
+    }
+
+    public static File fileFor(File aConfigDirectory, Configuration.CrawlLocation aLocation) {
+        return new File(new File(aConfigDirectory, "crawlmanifest"), aLocation.getId() + ".json");
+    }
+
+    public static CrawlManifest load(File aFile) {
+        if (aFile.exists()) {
+            try (FileInputStream theStream = new FileInputStream(aFile)) {
+                return new ObjectMapper().readValue(theStream, CrawlManifest.class);
+            } catch (Exception e) {
+                LOGGER.warn("Error reading crawl manifest " + aFile + ", doing a full crawl", e);
+            }
+        }
+        return new CrawlManifest();
+    }
+
+    public void writeTo(File aFile) throws IOException {
+        aFile.getParentFile().mkdirs();
+        try (FileOutputStream theStream = new FileOutputStream(aFile)) {
+            new ObjectMapper().writeValue(theStream, this);
+        }
+    }
+
+    public Map<String, DirectoryState> getDirectories() {
+        return directories;
+    }
+
+    public DirectoryState getState(Path aDirectory) {
+        return directories.get(aDirectory.toString());
+    }
+
+    public boolean isKnownDirectory(Path aPath) {
+        return directories.containsKey(aPath.toString());
+    }
+
+    public void update(Path aDirectory, long aLastModified, int aChildCount) {
+        directories.put(aDirectory.toString(), new DirectoryState(aLastModified, aChildCount));
+    }
+
+    /**
+     * Forces the next crawl to check all files of a directory again. The directory stays known, so its
+     * parent still walks into it.
+     */
+    public void invalidate(Path aDirectory) {
+        if (isKnownDirectory(aDirectory)) {
+            update(aDirectory, INVALID, INVALID);
+        }
+    }
+
+    /**
+     * Records a directory that could not be read. Its parent still walks into it, and its files are checked again.
+     */
+    public void failed(Path aDirectory) {
+        update(aDirectory, INVALID, INVALID);
+    }
+
+    /**
+     * Directories that are checked again by the next crawl. For the manifest of a walk that has just
+     * finished, these are the directories that could not be read. Not named as a getter, so Jackson
+     * does not write it to the manifest file.
+     */
+    public List<String> invalidDirectories() {
+        return directories.entrySet().stream()
+                .filter(aEntry -> aEntry.getValue().getLastModified() == INVALID)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    public static void invalidate(File aFile, Path aDirectory) throws IOException {
+        if (aFile.exists()) {
+            CrawlManifest theManifest = load(aFile);
+            if (theManifest.isKnownDirectory(aDirectory)) {
+                theManifest.invalidate(aDirectory);
+                theManifest.writeTo(aFile);
+            }
+        }
+    }
+
+    public int size() {
+        return directories.size();
+    }
+}
@@ -170,7 +170,7 @@ public class DesktopSearchController implements Initializable {
                 @Override
                 public void run() {
                     Platform.runLater(() -> {
-                        recrawl();
+                        recrawl(true);
                     });
                 }
             }, 5000);
@@ -187,7 +187,7 @@ public class DesktopSearchController implements Initializable {
         Objects.requireNonNull(searchDocumentItem);
 
         menuItemConfigure.setOnAction(actionEvent -> configure());
-        menuItemRecrawl.setOnAction(actionEvent -> recrawl());
+        menuItemRecrawl.setOnAction(actionEvent -> recrawl(false));
         menuItemClose.setOnAction(actionEvent -> close());
 
         searchDocumentItem.setOnAction(actionEvent -> webView.getEngine().load(searchURL));
@@ -200,7 +200,7 @@ public class DesktopSearchController implements Initializable {
         application.shutdown();
     }
 
-    void recrawl() {
+    void recrawl(boolean aIncremental) {
         // Check if there is already a crawl run in progress
         // this might happen due to the crawl on startup feature
         if (!menuItemRecrawl.isDisable()) {
@@ -209,7 +209,7 @@ public class DesktopSearchController implements Initializable {
             menuItemRecrawl.setDisable(true);
             statusText.setText("");
             try {
-                backend.crawlLocations();
+                backend.crawlLocations(aIncremental);
             } catch (Exception e) {
                 LOGGER.error("Error crawling locations", e);
             }
@@ -13,11 +13,28 @@
 package de.mirkosertic.desktopsearch;
 
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
 
 interface DirectoryListener {
     void fileDeleted(Configuration.CrawlLocation aLocation, Path aFile);
 
     void fileCreatedOrModified(Configuration.CrawlLocation aLocation, Path aFile);
 
-    void fileFoundByCrawler(Configuration.CrawlLocation aLocation, Path aFile);
+    /**
+     * @param aAttributes the attributes from the directory listing, or null if they have to be read again
+     */
+    void fileFoundByCrawler(Configuration.CrawlLocation aLocation, Path aFile, BasicFileAttributes aAttributes);
+
+    /**
+     * Called for files in directories the crawler found unchanged. These files are not checked at all, files
+     * modified in place while the application was not running are only found by a full crawl.
+     */
+    void fileUnchangedByCrawler(Configuration.CrawlLocation aLocation, Path aFile);
+
+    /**
+     * Called after the direct children of a directory were checked again, everything else below
+     * the directory that is still in the index was removed while no events were delivered.
+     */
+    void directoryRescanned(Configuration.CrawlLocation aLocation, Path aDirectory, Set<Path> aChildren);
 }
\ No newline at end of file
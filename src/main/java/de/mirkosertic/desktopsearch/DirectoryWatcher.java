@@ -16,47 +16,62 @@ import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DirectoryWatcher {
 
     private static final Logger LOGGER = Logger.getLogger(DirectoryWatcher.class);
 
-    public static final int DEFAULT_WAIT_FOR_ACTION = 5;
+    private static class PendingAction implements Delayed {
 
-    private static class ActionTimer {
+        private final Path path;
+        private final WatchEvent.Kind kind;
+        private final long dueTime;
 
-        private WatchEvent.Kind kind;
-        private int waitForAction;
-
-        public ActionTimer(WatchEvent.Kind aKind, int aWaitForAction) {
+        public PendingAction(Path aPath, WatchEvent.Kind aKind, long aDueTime) {
+            path = aPath;
             kind = aKind;
-            waitForAction = aWaitForAction;
+            dueTime = aDueTime;
         }
 
-        public void reset(WatchEvent.Kind aKind, int aWaitForAction) {
-            kind = aKind;
-            waitForAction = aWaitForAction;
+        @Override
+        public long getDelay(TimeUnit aUnit) {
+            return aUnit.convert(dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
         }
 
-        public boolean runOneCycle() {
-            return (--waitForAction <= 0);
+        @Override
+        public int compareTo(Delayed aOther) {
+            return Long.compare(dueTime, ((PendingAction) aOther).dueTime);
         }
     }
 
     private final WatchService watchService;
     private final Thread watcherThread;
-    private final Map<Path, ActionTimer> fileTimers;
-    private final int waitForAction;
-    private final Timer actionTimer;
+    private final Thread actionThread;
+    private final Map<Path, PendingAction> pendingActions;
+    private final Map<Path, WatchKey> watchKeys;
+    private final AtomicInteger activeActions;
+    private final ChangeJournal journal;
+    private final DelayQueue<PendingAction> actionQueue;
+    private final long waitForActionNanos;
     private final DirectoryListener directoryListener;
     private final Configuration.CrawlLocation filesystemLocation;
-    private final ExecutorPool executorPool;
 
-    public DirectoryWatcher(WatchServiceCache aWatchServiceCache, Configuration.CrawlLocation aFileSystemLocation, int aWaitForAction, DirectoryListener aDirectoryListener, ExecutorPool aExecutorPool) throws IOException {
-        executorPool = aExecutorPool;
-        fileTimers = new HashMap<>();
-        waitForAction = aWaitForAction;
+    public DirectoryWatcher(WatchServiceCache aWatchServiceCache, Configuration.CrawlLocation aFileSystemLocation, int aWaitForActionMillis, ChangeJournal aJournal, DirectoryListener aDirectoryListener) throws IOException {
+        pendingActions = new ConcurrentHashMap<>();
+        watchKeys = new ConcurrentHashMap<>();
+        activeActions = new AtomicInteger();
+        journal = aJournal;
+        actionQueue = new DelayQueue<>();
+        waitForActionNanos = TimeUnit.MILLISECONDS.toNanos(aWaitForActionMillis);
         directoryListener = aDirectoryListener;
         filesystemLocation = aFileSystemLocation;
 
@@ -66,130 +81,239 @@ public class DirectoryWatcher {
         watcherThread = new Thread("WatcherThread-"+thePath) {
             @Override
             public void run() {
-                while(!isInterrupted()) {
-
-                    try {
+                try {
+                    while (!isInterrupted()) {
+                        // Block for the first key, then drain everything that is already signalled
                         WatchKey theKey = watchService.take();
-                        Path theParent = (Path) theKey.watchable();
-                        theKey.pollEvents().stream().forEach(theEvent -> {
-                            if (theEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
-                                LOGGER.warn("Overflow for " + theEvent.context() + " count = " + theEvent.count());
-                                // Overflow events are not handled
-                            } else {
-                                Path thePath = theParent.resolve((Path) theEvent.context());
-                                LOGGER.debug(theEvent.kind() + " for " + theEvent.context() + " count = " + theEvent.count());
-
-                                publishActionFor(thePath, theEvent.kind());
+                        // The watch service is shared, so a stopped watcher must not take further keys
+                        while (theKey != null && !isInterrupted()) {
+                            processEvents(theKey);
+                            theKey = watchService.poll();
+                        }
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    LOGGER.debug("Has been interrupted");
+                }
+            }
+        };
+        actionThread = new Thread("WatcherActions-"+thePath) {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        PendingAction theAction = actionQueue.take();
+                        activeActions.incrementAndGet();
+                        try {
+                            // A later event for the same path supersedes this one
+                            if (pendingActions.remove(theAction.path, theAction)) {
+                                performAction(theAction);
                             }
-                        });
-                        theKey.reset();
-
-                        Thread.sleep(10000);
-                    } catch (InterruptedException e) {
-                        LOGGER.debug("Has been interrupted");
+                        } finally {
+                            activeActions.decrementAndGet();
+                        }
                     }
+                } catch (InterruptedException e) {
+                    LOGGER.debug("Has been interrupted");
                 }
             }
         };
-        actionTimer = new Timer();
     }
 
-    private void publishActionFor(Path aPath, WatchEvent.Kind aKind ) {
-        synchronized (fileTimers) {
-            ActionTimer theTimer = fileTimers.get(aPath);
-            if (theTimer == null) {
-                fileTimers.put(aPath, new ActionTimer(aKind, waitForAction));
+    private void processEvents(WatchKey aKey) {
+        Path theParent = (Path) aKey.watchable();
+        aKey.pollEvents().stream().forEach(theEvent -> {
+            if (theEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOGGER.warn("Overflow for " + theParent + " count = " + theEvent.count() + ", scheduling rescan");
+                publishActionFor(theParent, StandardWatchEventKinds.OVERFLOW);
+                journal.append(StandardWatchEventKinds.OVERFLOW, theParent);
             } else {
-                theTimer.reset(aKind, waitForAction);
+                Path thePath = theParent.resolve((Path) theEvent.context());
+                LOGGER.debug(theEvent.kind() + " for " + theEvent.context() + " count = " + theEvent.count());
+
+                publishActionFor(thePath, theEvent.kind());
+                journal.append(theEvent.kind(), thePath);
+            }
+        });
+        aKey.reset();
+    }
+
+    private void publishActionFor(Path aPath, WatchEvent.Kind aKind) {
+        PendingAction theAction = new PendingAction(aPath, aKind, System.nanoTime() + waitForActionNanos);
+        pendingActions.put(aPath, theAction);
+        actionQueue.put(theAction);
+    }
+
+    private void performAction(PendingAction aAction) {
+        if (aAction.kind == StandardWatchEventKinds.OVERFLOW) {
+            rescan(aAction.path);
+        } else if (!Files.isDirectory(aAction.path)) {
+            if (aAction.kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                directoryListener.fileCreatedOrModified(filesystemLocation, aAction.path);
+            }
+            if (aAction.kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                directoryListener.fileDeleted(filesystemLocation, aAction.path);
+            }
+            if (aAction.kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                directoryListener.fileCreatedOrModified(filesystemLocation, aAction.path);
+            }
+        } else {
+            try {
+                // Directories moved into the location have no watcher and their content was never seen
+                if (registerWatcher(aAction.path)) {
+                    rescan(aAction.path);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Error registering watcher for " + aAction.path, e);
             }
         }
     }
 
-    private void actionCountDown() {
-        synchronized (fileTimers) {
-            Set<Path> theKeysToRemove = new HashSet<>();
-            fileTimers.entrySet().stream().forEach(theEntry -> {
-                if (theEntry.getValue().runOneCycle()) {
-                    theKeysToRemove.add(theEntry.getKey());
-                    if (!Files.isDirectory(theEntry.getKey())) {
-                        if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                            directoryListener.fileCreatedOrModified(filesystemLocation, theEntry.getKey());
-                        }
-                        if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_DELETE) {
-                            directoryListener.fileDeleted(filesystemLocation, theEntry.getKey());
-                        }
-                        if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                            directoryListener.fileCreatedOrModified(filesystemLocation, theEntry.getKey());
-                        }
-                    } else {
-                        try {
-                            if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                                registerWatcher(theEntry.getKey());
-                            }
-                            if (theEntry.getValue().kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                                registerWatcher(theEntry.getKey());
-                            }
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
+    /**
+     * Brings the index in line with a single directory after events were lost. Files go through the
+     * usual change detection, new subdirectories are rescanned the same way.
+     */
+    private void rescan(Path aDirectory) {
+        LOGGER.info("Rescanning " + aDirectory);
+        Set<Path> theChildren = new HashSet<>();
+        try (DirectoryStream<Path> theStream = Files.newDirectoryStream(aDirectory)) {
+            for (Path theChild : theStream) {
+                theChildren.add(theChild);
+                if (Files.isDirectory(theChild, LinkOption.NOFOLLOW_LINKS)) {
+                    if (registerWatcher(theChild)) {
+                        publishActionFor(theChild, StandardWatchEventKinds.OVERFLOW);
                     }
+                } else if (!Files.isDirectory(theChild)) {
+                    // A rescan behaves like a crawl of the directory, so there is no notification per file
+                    directoryListener.fileFoundByCrawler(filesystemLocation, theChild, null);
                 }
-            });
-            theKeysToRemove.forEach(fileTimers::remove);
+            }
+        } catch (NoSuchFileException e) {
+            // The directory is gone, so is everything below it
+        } catch (IOException e) {
+            LOGGER.error("Error rescanning " + aDirectory, e);
+            return;
         }
+        directoryListener.directoryRescanned(filesystemLocation, aDirectory, theChildren);
     }
 
-    private void registerWatcher(Path aDirectory) throws IOException {
-        LOGGER.info("New watchable directory detected : " + aDirectory);
-        aDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    private boolean registerWatcher(Path aDirectory) throws IOException {
+        WatchKey theKey = watchKeys.get(aDirectory);
+        if (theKey != null && theKey.isValid()) {
+            return false;
+        }
+        LOGGER.debug("Registering watches for " + aDirectory);
+        watchKeys.put(aDirectory, aDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+        return true;
     }
 
-    public DirectoryWatcher startWatching() {
+    public DirectoryWatcher startWatching(boolean aRegisterWatchers) {
 
-        Thread theRegisterWatchers = new Thread("Registering Watchers") {
-            @Override
-            public void run() {
-                try {
-                    Files.walk(filesystemLocation.getDirectory().toPath()).forEach(path -> {
-                        if (Files.isDirectory(path)) {
-                            LOGGER.info("Registering watches for " + path);
-                            try {
-                                registerWatcher(path);
-                            } catch (IOException e) {
-                                throw new RuntimeException(e);
+        if (aRegisterWatchers) {
+            Thread theRegisterWatchers = new Thread("Registering Watchers") {
+                @Override
+                public void run() {
+                    try {
+                        walk(new CrawlManifest(), new ParallelDirectoryWalker.Visitor() {
+                            @Override
+                            public void directoryFound(Path aDirectory) throws IOException {
+                                registerWatcher(aDirectory);
                             }
-                        }
-                    });
-                } catch (IOException e) {
-                    LOGGER.error("Error registering file watcher", e);
+
+                            @Override
+                            public void fileFound(Path aFile, BasicFileAttributes aAttributes) {
+                            }
+
+                            @Override
+                            public void fileUnchanged(Path aFile) {
+                            }
+                        });
+                    } catch (IOException e) {
+                        LOGGER.error("Error registering file watcher", e);
+                    }
                 }
-            }
-        };
-        theRegisterWatchers.start();
+            };
+            theRegisterWatchers.start();
+        }
+
+        // Changes not committed before the last shutdown
+        journal.replay(this::publishActionFor);
 
         watcherThread.start();
-        actionTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                actionCountDown();
-            }
-        }, 1000, 1000);
+        actionThread.start();
         return this;
     }
 
+    public Configuration.CrawlLocation getLocation() {
+        return filesystemLocation;
+    }
+
     public void stopWatching() {
-        actionTimer.cancel();
         watcherThread.interrupt();
+        actionThread.interrupt();
+        try {
+            // Both threads append to or truncate the journal
+            watcherThread.join();
+            actionThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing change journal", e);
+        }
+    }
+
+    /**
+     * Returns the journal position up to which all events were handed over to the listener,
+     * or -1 if there are still events waiting for their action.
+     */
+    public int getJournalCheckpoint() {
+        // Called before every commit, so the journal is forced once per commit instead of once per event
+        journal.force();
+
+        // Events are published before they are journaled, so everything before this
+        // position is either still pending or already handed over
+        int thePosition = journal.getPosition();
+        if (!pendingActions.isEmpty() || activeActions.get() > 0) {
+            return -1;
+        }
+        return thePosition;
+    }
+
+    /**
+     * Tells without touching the disk if there are journaled events which were all handed over to the listener.
+     */
+    public boolean isJournalCheckpointPending() {
+        return !journal.isEmpty() && pendingActions.isEmpty() && activeActions.get() == 0;
     }
 
-    public void crawl() throws IOException {
+    public void journalCommitted(int aCheckpoint) {
+        journal.truncate(aCheckpoint);
+    }
 
-        Path thePath = filesystemLocation.getDirectory().toPath();
+    public CrawlManifest crawl(CrawlManifest aPreviousManifest) throws IOException {
+        // The crawl also registers the watchers, so the tree is only walked once
+        return walk(aPreviousManifest, new ParallelDirectoryWalker.Visitor() {
+            @Override
+            public void directoryFound(Path aDirectory) throws IOException {
+                registerWatcher(aDirectory);
+            }
 
-        Files.walk(thePath).forEach(aPath -> {
-            if (!Files.isDirectory(aPath)) {
-                executorPool.execute(() -> directoryListener.fileFoundByCrawler(filesystemLocation, aPath));
+            @Override
+            public void fileFound(Path aFile, BasicFileAttributes aAttributes) {
+                directoryListener.fileFoundByCrawler(filesystemLocation, aFile, aAttributes);
+            }
+
+            @Override
+            public void fileUnchanged(Path aFile) {
+                directoryListener.fileUnchangedByCrawler(filesystemLocation, aFile);
             }
         });
     }
+
+    private CrawlManifest walk(CrawlManifest aPreviousManifest, ParallelDirectoryWalker.Visitor aVisitor) throws IOException {
+        ParallelDirectoryWalker theWalker = new ParallelDirectoryWalker(filesystemLocation.getParallelism(), aPreviousManifest, aVisitor);
+        return theWalker.walk(filesystemLocation.getDirectory().toPath());
+    }
 }
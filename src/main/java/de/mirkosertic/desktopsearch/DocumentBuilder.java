@@ -0,0 +1,283 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds the Lucene document for extracted content. Every indexing thread has its own builder, so the number format,
+ * digest and buffers are reused instead of being created for every document. The documents themselves are handed over to
+ * the index writer stage and are therefore always new instances.
+ */
+class DocumentBuilder {
+
+    private static final Logger LOGGER = Logger.getLogger(DocumentBuilder.class);
+
+    private static final String FOCAL_LENGTH_35 = "focal-length-35";
+    private static final String IMAGE_HEIGHT = "image-height";
+    private static final String[] NUMERIC_METADATA = {FOCAL_LENGTH_35, IMAGE_HEIGHT};
+
+    private final AnalyzerCache analyzerCache;
+    private final FacetsConfig facetsConfig;
+    private final IndexSchema schema;
+    private final StringBuilder metaData;
+    private final StringBuilder datePath;
+    private final NumberFormat integerFormat;
+    private final MessageDigest digest;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer encoded;
+
+    DocumentBuilder(AnalyzerCache aAnalyzerCache, FacetsConfig aFacetsConfig, IndexSchema aSchema) {
+        analyzerCache = aAnalyzerCache;
+        facetsConfig = aFacetsConfig;
+        schema = aSchema;
+        metaData = new StringBuilder();
+        datePath = new StringBuilder();
+        integerFormat = NumberFormat.getIntegerInstance();
+        digest = DigestUtils.getMd5Digest();
+        // Same replacement as String.getBytes() for broken surrogates
+        encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        encoded = ByteBuffer.allocate(16384);
+    }
+
+    public Document build(String aLocationId, Content aContent) throws IOException {
+        Document theDocument = new Document();
+
+        SupportedLanguage theLanguage = aContent.getLanguage();
+
+        // Metadata is indexed as an additional value of the content fields, so the
+        // extracted text is never copied
+        metaData.setLength(0);
+
+        aContent.getMetadata().forEach(theEntry -> {
+            if (!StringUtils.isEmpty(theEntry.key)) {
+                Object theValue = theEntry.value;
+                if (theValue instanceof String) {
+                    String theStringValue = (String) theValue;
+                    metaData.append(" ").append(theStringValue);
+                    // we want to process special cases here and not in ContentExtractor to preserve possible units
+                    switch (theEntry.key) {
+                    case FOCAL_LENGTH_35:
+                    case IMAGE_HEIGHT:
+                        try {
+                            long len = integerFormat.parse(theStringValue).longValue();
+                            theDocument.add(new NumericDocValuesField(theEntry.key, len));
+                        } catch (ParseException e) {
+                        }
+                        break;
+                    default:
+                        if (!StringUtils.isEmpty(theStringValue)) {
+                            theDocument.add(new SortedSetDocValuesFacetField(theEntry.key, theStringValue));
+                        }
+                    }
+                }
+                if (theValue instanceof ZonedDateTime) {
+                    ZonedDateTime theDateValue = (ZonedDateTime) theValue;
+
+                    addDatePath(theDocument, theEntry.key + "-year-month-day", theDateValue, 3);
+                    addDatePath(theDocument, theEntry.key + "-year", theDateValue, 1);
+                    addDatePath(theDocument, theEntry.key + "-year-month", theDateValue, 2);
+                }
+            }
+        });
+        String content = aContent.getFileContent();
+        String theMetaData = metaData.toString();
+
+        if (analyzerCache.supportsLanguage(theLanguage)) {
+            LOGGER.info("Language and analyzer " + theLanguage+" detected for " + aContent.getFileName()+", using the corresponding language index field");
+        } else {
+            LOGGER.info("No matching language and analyzer detected for " + theLanguage+" and " + aContent.getFileName()+", using the default index field and analyzer");
+        }
+
+        // Unique, but does not need the SecureRandom behind UUID.randomUUID()
+        addCommonFields(theDocument, randomUUID().toString(), aContent.getFileName(), aLocationId, theLanguage,
+                content, theMetaData, md5Hex(content, theMetaData), aContent.getFileSize(), aContent.getLastModified());
+
+        return facetsConfig.build(theDocument);
+    }
+
+    /**
+     * Builds a document with the current schema from what an existing document has in the index.
+     */
+    public Document rebuild(LeafReader aReader, int aDocument) throws IOException {
+        Document theDocument = new Document();
+
+        SortedSetDocValues theFacets = aReader.getSortedSetDocValues(FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+        if (theFacets != null) {
+            theFacets.setDocument(aDocument);
+            long theOrd;
+            while ((theOrd = theFacets.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                String[] thePath = FacetsConfig.stringToPath(theFacets.lookupOrd(theOrd).utf8ToString());
+                if (!IndexFields.LANGUAGEFACET.equals(thePath[0])) {
+                    theDocument.add(new SortedSetDocValuesFacetField(thePath[0], thePath[1]));
+                }
+            }
+        }
+        for (String theField : NUMERIC_METADATA) {
+            NumericDocValues theValues = aReader.getNumericDocValues(theField);
+            Bits theDocsWithField = aReader.getDocsWithField(theField);
+            if (theValues != null && theDocsWithField != null && theDocsWithField.get(aDocument)) {
+                theDocument.add(new NumericDocValuesField(theField, theValues.get(aDocument)));
+            }
+        }
+
+        Document theStoredFields = aReader.document(aDocument);
+        SupportedLanguage theLanguage = SupportedLanguage.valueOf(theStoredFields.get(IndexFields.LANGUAGESTORED));
+        // The content and the metadata are the stored values of the language field
+        String[] theTexts = theStoredFields.getValues(contentFieldFor(theLanguage));
+        if (theTexts.length == 0) {
+            theTexts = theStoredFields.getValues(IndexFields.CONTENT);
+        }
+        String content = theTexts.length > 0 ? theTexts[0] : "";
+        String theMetaData = theTexts.length > 1 ? theTexts[1] : "";
+
+        addCommonFields(theDocument, theStoredFields.get(IndexFields.UNIQUEID), theStoredFields.get(IndexFields.FILENAME),
+                theStoredFields.get(IndexFields.LOCATIONID), theLanguage, content, theMetaData,
+                theStoredFields.get(IndexFields.CONTENTMD5),
+                theStoredFields.getField(IndexFields.FILESIZE).numericValue().longValue(),
+                theStoredFields.getField(IndexFields.LASTMODIFIED).numericValue().longValue());
+
+        return facetsConfig.build(theDocument);
+    }
+
+    private String contentFieldFor(SupportedLanguage aLanguage) {
+        if (analyzerCache.supportsLanguage(aLanguage)) {
+            return analyzerCache.getFieldNameFor(aLanguage);
+        }
+        return IndexFields.CONTENT;
+    }
+
+    private void addCommonFields(Document aDocument, String aUniqueID, String aFileName, String aLocationId, SupportedLanguage aLanguage,
+            String aContent, String aMetaData, String aContentMD5, long aFileSize, long aLastModified) {
+        aDocument.add(new StringField(IndexFields.UNIQUEID, aUniqueID, Field.Store.YES));
+        aDocument.add(new SortedDocValuesField(IndexFields.UNIQUEID, new BytesRef(aUniqueID)));
+        aDocument.add(new StringField(IndexFields.FILENAME, aFileName, Field.Store.YES));
+        aDocument.add(new SortedDocValuesField(IndexFields.FILENAME, new BytesRef(aFileName)));
+        aDocument.add(new NumericDocValuesField(IndexFields.SCHEMAVERSION, schema.getVersion()));
+        aDocument.add(new SortedSetDocValuesFacetField(IndexFields.LANGUAGEFACET, aLanguage.name()));
+        aDocument.add(new TextField(IndexFields.LANGUAGESTORED, aLanguage.name(), Field.Store.YES));
+
+        String theFieldName = contentFieldFor(aLanguage);
+        aDocument.add(new Field(theFieldName, aContent, schema.getContentFieldType()));
+
+        // Only the term vectors of the not stemmed content are used, so it is not stored
+        // and consumed by the analyzer directly
+        aDocument.add(new Field(IndexFields.CONTENT_NOT_STEMMED, new StringReader(aContent), schema.getNotStemmedFieldType()));
+
+        if (!aMetaData.isEmpty()) {
+            aDocument.add(new Field(theFieldName, aMetaData, schema.getContentFieldType()));
+            aDocument.add(new Field(IndexFields.CONTENT_NOT_STEMMED, new StringReader(aMetaData), schema.getNotStemmedFieldType()));
+        }
+
+        aDocument.add(new TextField(IndexFields.CONTENTMD5, aContentMD5, Field.Store.YES));
+        aDocument.add(new StringField(IndexFields.LOCATIONID, aLocationId, Field.Store.YES));
+        aDocument.add(new LongField(IndexFields.FILESIZE, aFileSize, Field.Store.YES));
+        aDocument.add(new NumericDocValuesField(IndexFields.FILESIZE, aFileSize));
+        aDocument.add(new LongField(IndexFields.LASTMODIFIED, aLastModified, Field.Store.YES));
+        aDocument.add(new NumericDocValuesField(IndexFields.LASTMODIFIED, aLastModified));
+    }
+
+    private void addDatePath(Document aDocument, String aDimension, ZonedDateTime aDate, int aComponents) {
+        // yyyy, yyyy/MM or yyyy/MM/dd
+        datePath.setLength(0);
+        appendPadded(aDate.getYear(), 4);
+        if (aComponents > 1) {
+            datePath.append('/');
+            appendPadded(aDate.getMonthValue(), 2);
+        }
+        if (aComponents > 2) {
+            datePath.append('/');
+            appendPadded(aDate.getDayOfMonth(), 2);
+        }
+        String thePathInfo = datePath.toString();
+
+        metaData.append(" ").append(thePathInfo);
+        aDocument.add(new SortedSetDocValuesFacetField(aDimension, thePathInfo));
+    }
+
+    private void appendPadded(int aValue, int aDigits) {
+        for (int theLimit = 10, i = 1; i < aDigits; theLimit *= 10, i++) {
+            if (aValue < theLimit) {
+                datePath.append('0');
+            }
+        }
+        datePath.append(aValue);
+    }
+
+    private static UUID randomUUID() {
+        ThreadLocalRandom theRandom = ThreadLocalRandom.current();
+        // Version 4, IETF variant
+        long theMostSignificant = (theRandom.nextLong() & ~0xF000L) | 0x4000L;
+        long theLeastSignificant = (theRandom.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+        return new UUID(theMostSignificant, theLeastSignificant);
+    }
+
+    String md5Hex(String... aValues) {
+        // Same hash as for the concatenated values, but the UTF-8 bytes go through a reused buffer
+        digest.reset();
+        for (String theValue : aValues) {
+            CharBuffer theInput = CharBuffer.wrap(theValue);
+            encoder.reset();
+            CoderResult theResult;
+            do {
+                theResult = encoder.encode(theInput, encoded, true);
+                drainEncoded();
+            } while (theResult.isOverflow());
+            while (encoder.flush(encoded).isOverflow()) {
+                drainEncoded();
+            }
+            drainEncoded();
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private void drainEncoded() {
+        encoded.flip();
+        digest.update(encoded);
+        encoded.clear();
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Column access to the per document values needed on hot paths, so no stored document
+ * has to be loaded. Documents written before the columns were introduced have no schema
+ * version, for them the stored fields are used as a fallback until the schema migration
+ * has rewritten them.
+ *
+ * All methods take top level document ids.
+ */
+class DocumentColumns {
+
+    private static class LeafColumns {
+
+        private final LeafReader reader;
+        private final SortedDocValues fileNames;
+        private final SortedDocValues uniqueIds;
+        private final NumericDocValues lastModified;
+        private final NumericDocValues schemaVersion;
+        private final Bits docsWithSchemaVersion;
+
+        private LeafColumns(LeafReader aReader) throws IOException {
+            reader = aReader;
+            fileNames = aReader.getSortedDocValues(IndexFields.FILENAME);
+            uniqueIds = aReader.getSortedDocValues(IndexFields.UNIQUEID);
+            lastModified = aReader.getNumericDocValues(IndexFields.LASTMODIFIED);
+            schemaVersion = aReader.getNumericDocValues(IndexFields.SCHEMAVERSION);
+            docsWithSchemaVersion = aReader.getDocsWithField(IndexFields.SCHEMAVERSION);
+        }
+
+        private boolean hasColumns(int aDocumentID) {
+            return docsWithSchemaVersion != null && docsWithSchemaVersion.get(aDocumentID);
+        }
+
+        private Document loadStored(int aDocumentID, String aField) throws IOException {
+            return reader.document(aDocumentID, Collections.singleton(aField));
+        }
+    }
+
+    private final List<LeafReaderContext> leaves;
+    private final LeafColumns[] leafColumns;
+
+    public DocumentColumns(IndexReader aReader) {
+        leaves = aReader.leaves();
+        leafColumns = new LeafColumns[leaves.size()];
+    }
+
+    private LeafColumns columnsFor(int aLeafIndex) throws IOException {
+        LeafColumns theColumns = leafColumns[aLeafIndex];
+        if (theColumns == null) {
+            theColumns = new LeafColumns(leaves.get(aLeafIndex).reader());
+            leafColumns[aLeafIndex] = theColumns;
+        }
+        return theColumns;
+    }
+
+    private interface ColumnReader<T> {
+        T read(LeafColumns aColumns, int aLocalDocumentID) throws IOException;
+    }
+
+    private <T> T read(int aDocumentID, ColumnReader<T> aReader) throws IOException {
+        int theLeafIndex = ReaderUtil.subIndex(aDocumentID, leaves);
+        return aReader.read(columnsFor(theLeafIndex), aDocumentID - leaves.get(theLeafIndex).docBase);
+    }
+
+    public long getSchemaVersion(int aDocumentID) throws IOException {
+        return read(aDocumentID, (aColumns, aLocalID) -> {
+            if (!aColumns.hasColumns(aLocalID)) {
+                return IndexSchema.PRE_COLUMNS_VERSION;
+            }
+            return aColumns.schemaVersion.get(aLocalID);
+        });
+    }
+
+    public String getFileName(int aDocumentID) throws IOException {
+        return read(aDocumentID, (aColumns, aLocalID) -> {
+            if (aColumns.hasColumns(aLocalID)) {
+                return aColumns.fileNames.get(aLocalID).utf8ToString();
+            }
+            return aColumns.loadStored(aLocalID, IndexFields.FILENAME).get(IndexFields.FILENAME);
+        });
+    }
+
+    public String getUniqueID(int aDocumentID) throws IOException {
+        return read(aDocumentID, (aColumns, aLocalID) -> {
+            if (aColumns.hasColumns(aLocalID)) {
+                return aColumns.uniqueIds.get(aLocalID).utf8ToString();
+            }
+            return aColumns.loadStored(aLocalID, IndexFields.UNIQUEID).get(IndexFields.UNIQUEID);
+        });
+    }
+
+    public long getLastModified(int aDocumentID) throws IOException {
+        return read(aDocumentID, (aColumns, aLocalID) -> {
+            if (aColumns.hasColumns(aLocalID)) {
+                return aColumns.lastModified.get(aLocalID);
+            }
+            return aColumns.loadStored(aLocalID, IndexFields.LASTMODIFIED).getField(IndexFields.LASTMODIFIED).numericValue().longValue();
+        });
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of extraction results keyed by a hash of the file content and its size, so
+ * copies of a file are only parsed once. Entries are evicted least recently used first, the
+ * order survives restarts as hits touch the last modified time of the entry file.
+ */
+class ExtractionCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ExtractionCache.class);
+
+    private final File directory;
+    private final long maxBytes;
+    private final ObjectMapper objectMapper;
+    private final LinkedHashMap<String, Long> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private long totalBytes;
+
+    public ExtractionCache(File aDirectory, long aMaxBytes) {
+        directory = aDirectory;
+        maxBytes = aMaxBytes;
+        objectMapper = new ObjectMapper();
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+
+        directory.mkdirs();
+        List<File> theFiles = new ArrayList<>();
+        File[] theShards = directory.listFiles(File::isDirectory);
+        if (theShards != null) {
+            for (File theShard : theShards) {
+                File[] theEntries = theShard.listFiles((aDir, aName) -> aName.endsWith(".json"));
+                if (theEntries != null) {
+                    for (File theEntry : theEntries) {
+                        theFiles.add(theEntry);
+                    }
+                }
+            }
+        }
+        theFiles.sort(Comparator.comparingLong(File::lastModified));
+        for (File theFile : theFiles) {
+            String theName = theFile.getName();
+            entries.put(theName.substring(0, theName.length() - 5), theFile.length());
+            totalBytes += theFile.length();
+        }
+        LOGGER.info("Extraction cache contains " + entries.size() + " entries using " + totalBytes / 1024 + "kb");
+    }
+
+    public static File directoryFor(File aConfigDirectory) {
+        return new File(aConfigDirectory, "extractioncache");
+    }
+
+    public static String keyFor(Path aFile, long aSize) throws IOException {
+        MessageDigest theDigest = DigestUtils.getMd5Digest();
+        byte[] theBuffer = new byte[64 * 1024];
+        try (InputStream theStream = Files.newInputStream(aFile)) {
+            int theLength;
+            while ((theLength = theStream.read(theBuffer)) > 0) {
+                theDigest.update(theBuffer, 0, theLength);
+            }
+        }
+        return Hex.encodeHexString(theDigest.digest()) + "-" + aSize;
+    }
+
+    public static String keyFor(byte[] aData, int aLength) {
+        MessageDigest theDigest = DigestUtils.getMd5Digest();
+        theDigest.update(aData, 0, aLength);
+        return Hex.encodeHexString(theDigest.digest()) + "-" + aLength;
+    }
+
+    private File fileFor(String aKey) {
+        return new File(new File(directory, aKey.substring(0, 2)), aKey + ".json");
+    }
+
+    /**
+     * Entries extracted with another character limit are outdated, they count as a miss and are removed.
+     */
+    public CachedContent get(String aKey, int aMaxCharacters) {
+        synchronized (entries) {
+            if (entries.get(aKey) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        File theFile = fileFor(aKey);
+        try (FileInputStream theStream = new FileInputStream(theFile)) {
+            CachedContent theResult = objectMapper.readValue(theStream, CachedContent.class);
+            if (theResult.getMaxCharacters() != aMaxCharacters) {
+                // Closed before the entry file is deleted
+                theStream.close();
+                remove(aKey);
+                misses.incrementAndGet();
+                return null;
+            }
+            theFile.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return theResult;
+        } catch (IOException e) {
+            LOGGER.warn("Error reading extraction cache entry " + theFile, e);
+            remove(aKey);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String aKey, CachedContent aContent) {
+        File theFile = fileFor(aKey);
+        File theTempFile = new File(theFile.getParentFile(), aKey + ".tmp");
+        try {
+            theFile.getParentFile().mkdirs();
+            try (FileOutputStream theStream = new FileOutputStream(theTempFile)) {
+                objectMapper.writeValue(theStream, aContent);
+            }
+            Files.move(theTempFile.toPath(), theFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Error writing extraction cache entry " + theFile, e);
+            theTempFile.delete();
+            return;
+        }
+
+        List<String> theEvicted = new ArrayList<>();
+        synchronized (entries) {
+            Long thePrevious = entries.put(aKey, theFile.length());
+            totalBytes += theFile.length() - (thePrevious != null ? thePrevious : 0);
+            Iterator<Map.Entry<String, Long>> theIterator = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && theIterator.hasNext()) {
+                Map.Entry<String, Long> theEntry = theIterator.next();
+                if (!theEntry.getKey().equals(aKey)) {
+                    totalBytes -= theEntry.getValue();
+                    theEvicted.add(theEntry.getKey());
+                    theIterator.remove();
+                }
+            }
+        }
+        for (String theKey : theEvicted) {
+            fileFor(theKey).delete();
+        }
+    }
+
+    private void remove(String aKey) {
+        synchronized (entries) {
+            Long theSize = entries.remove(aKey);
+            if (theSize != null) {
+                totalBytes -= theSize;
+            }
+        }
+        fileFor(aKey).delete();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Extraction cache : " + size() + " entries, " + getHitCount() + " hits, " + getMissCount() + " misses";
+    }
+}
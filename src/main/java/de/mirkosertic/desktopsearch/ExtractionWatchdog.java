@@ -0,0 +1,265 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs extractions with a wall clock and allocation limit. Files exceeding one of them are
+ * quarantined and skipped until their last modified time changes. The allocation limit counts
+ * the bytes allocated by the extracting thread in total, not the heap it retains. Parsers stream
+ * large files through memory, so the limit grows with the file size and only catches parsers
+ * allocating far more than the file could justify.
+ *
+ * Aborted parsers that ignore the interrupt keep their thread. Once too many of them pile up,
+ * extractions are refused until some of them have finished.
+ */
+class ExtractionWatchdog {
+
+    private static final Logger LOGGER = Logger.getLogger(ExtractionWatchdog.class);
+
+    private static final long CHECK_INTERVAL_MILLIS = 100;
+    // Small files are parsed by parsers initializing themselves first
+    static final long MIN_ALLOCATION_LIMIT_BYTES = 8L * 1024 * 1024 * 1024;
+    static final int MAX_ABANDONED_THREADS = 4;
+
+    private static final int RUNNING = 0;
+    private static final int FINISHED = 1;
+    private static final int ABANDONED = 2;
+
+    private final File quarantineFile;
+    private final long timeoutMillis;
+    private final long allocatedBytesPerInputByte;
+    private final ExecutorService executor;
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final Map<String, Long> quarantine;
+    private final AtomicLong timeouts;
+    private final AtomicLong allocationLimitExceeded;
+    private final AtomicLong quarantineSkips;
+    private final AtomicInteger abandonedThreads;
+    private final AtomicLong refusedExtractions;
+
+    public ExtractionWatchdog(File aQuarantineFile, long aTimeoutMillis, long aAllocatedBytesPerInputByte) {
+        quarantineFile = aQuarantineFile;
+        timeoutMillis = aTimeoutMillis;
+        allocatedBytesPerInputByte = aAllocatedBytesPerInputByte;
+        timeouts = new AtomicLong();
+        allocationLimitExceeded = new AtomicLong();
+        quarantineSkips = new AtomicLong();
+        abandonedThreads = new AtomicInteger();
+        refusedExtractions = new AtomicLong();
+        quarantine = new ConcurrentHashMap<>();
+
+        ThreadMXBean theThreadMXBean = ManagementFactory.getThreadMXBean();
+        if (theThreadMXBean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) theThreadMXBean).isThreadAllocatedMemorySupported()) {
+            threadMXBean = (com.sun.management.ThreadMXBean) theThreadMXBean;
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            LOGGER.warn("Thread allocation tracking is not supported, extractions have no allocation limit");
+            threadMXBean = null;
+        }
+
+        // Every caller of the extraction stage needs a thread, the abandoned ones come on top
+        AtomicInteger theThreadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(0, Runtime.getRuntime().availableProcessors() + MAX_ABANDONED_THREADS,
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), aRunnable -> {
+            Thread theThread = new Thread(aRunnable, "Extraction-" + theThreadCount.incrementAndGet());
+            theThread.setDaemon(true);
+            return theThread;
+        });
+
+        if (quarantineFile.exists()) {
+            try {
+                quarantine.putAll(new ObjectMapper().<Map<String, Long>>readValue(quarantineFile, new TypeReference<Map<String, Long>>() {}));
+            } catch (IOException e) {
+                LOGGER.warn("Error reading quarantine list " + quarantineFile, e);
+            }
+        }
+    }
+
+    public static File quarantineFileFor(File aConfigDirectory) {
+        return new File(aConfigDirectory, "quarantine.json");
+    }
+
+    static long allocationLimitFor(long aFileSize, long aAllocatedBytesPerInputByte) {
+        if (aFileSize > Long.MAX_VALUE / aAllocatedBytesPerInputByte) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(MIN_ALLOCATION_LIMIT_BYTES, aFileSize * aAllocatedBytesPerInputByte);
+    }
+
+    public boolean isQuarantined(Path aFile, BasicFileAttributes aAttributes) {
+        Long theLastModified = quarantine.get(aFile.toString());
+        if (theLastModified == null) {
+            return false;
+        }
+        if (theLastModified != aAttributes.lastModifiedTime().toMillis()) {
+            // The file was changed, so it gets another chance
+            quarantine.remove(aFile.toString());
+            writeQuarantine();
+            return false;
+        }
+        quarantineSkips.incrementAndGet();
+        return true;
+    }
+
+    public Content extract(Path aFile, BasicFileAttributes aAttributes, Supplier<Content> aExtraction) {
+        if (timeoutMillis <= 0 && allocatedBytesPerInputByte <= 0) {
+            return aExtraction.get();
+        }
+        if (abandonedThreads.get() >= MAX_ABANDONED_THREADS) {
+            refusedExtractions.incrementAndGet();
+            LOGGER.error(abandonedThreads.get() + " aborted extractions are still running, refusing to extract " + aFile);
+            return null;
+        }
+
+        long theAllocationLimit = allocatedBytesPerInputByte > 0 ? allocationLimitFor(aAttributes.size(), allocatedBytesPerInputByte) : 0;
+        AtomicReference<Thread> theThread = new AtomicReference<>();
+        AtomicLong theInitialAllocation = new AtomicLong();
+        AtomicInteger theState = new AtomicInteger(RUNNING);
+        Future<Content> theResult;
+        try {
+            theResult = executor.submit(() -> {
+                try {
+                    if (threadMXBean != null) {
+                        theInitialAllocation.set(threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()));
+                    }
+                    theThread.set(Thread.currentThread());
+                    return aExtraction.get();
+                } finally {
+                    if (!theState.compareAndSet(RUNNING, FINISHED)) {
+                        abandonedThreads.decrementAndGet();
+                        LOGGER.info("Aborted extraction of " + aFile + " has finished");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refusedExtractions.incrementAndGet();
+            LOGGER.error("No extraction thread available for " + aFile, e);
+            return null;
+        }
+
+        long theStartTime = System.currentTimeMillis();
+        while (true) {
+            try {
+                return theResult.get(CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (timeoutMillis > 0 && System.currentTimeMillis() - theStartTime > timeoutMillis) {
+                    timeouts.incrementAndGet();
+                    return abort(aFile, aAttributes, theResult, theState, "took longer than " + timeoutMillis + "ms");
+                }
+                Thread theExtractionThread = theThread.get();
+                if (theAllocationLimit > 0 && threadMXBean != null && theExtractionThread != null) {
+                    long theAllocated = threadMXBean.getThreadAllocatedBytes(theExtractionThread.getId()) - theInitialAllocation.get();
+                    if (theAllocated > theAllocationLimit) {
+                        allocationLimitExceeded.incrementAndGet();
+                        return abort(aFile, aAttributes, theResult, theState, "allocated more than " + theAllocationLimit / (1024 * 1024) + "mb");
+                    }
+                }
+            } catch (InterruptedException e) {
+                theResult.cancel(true);
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                LOGGER.error("Error extracting content of " + aFile, e.getCause());
+                return null;
+            }
+        }
+    }
+
+    private Content abort(Path aFile, BasicFileAttributes aAttributes, Future<Content> aResult, AtomicInteger aState, String aReason) {
+        // Parsers are not guaranteed to react on the interrupt, but the result is ignored in any case
+        aResult.cancel(true);
+        if (aState.compareAndSet(RUNNING, ABANDONED)) {
+            int theAbandoned = abandonedThreads.incrementAndGet();
+            if (theAbandoned >= MAX_ABANDONED_THREADS) {
+                LOGGER.error(theAbandoned + " aborted extractions ignore the interrupt and are still running, "
+                        + "extractions are refused until they have finished");
+            }
+        }
+        quarantine(aFile, aAttributes, "Extraction of " + aFile + " " + aReason);
+        return null;
+    }
+
+    public void quarantine(Path aFile, BasicFileAttributes aAttributes, String aReason) {
+        LOGGER.warn(aReason + ", quarantining the file");
+        quarantine.put(aFile.toString(), aAttributes.lastModifiedTime().toMillis());
+        writeQuarantine();
+    }
+
+    private synchronized void writeQuarantine() {
+        try {
+            new ObjectMapper().writeValue(quarantineFile, quarantine);
+        } catch (IOException e) {
+            LOGGER.warn("Error writing quarantine list " + quarantineFile, e);
+        }
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getAllocationLimitExceededCount() {
+        return allocationLimitExceeded.get();
+    }
+
+    public int getAbandonedThreadCount() {
+        return abandonedThreads.get();
+    }
+
+    public long getRefusedExtractionCount() {
+        return refusedExtractions.get();
+    }
+
+    public long getQuarantineSkipCount() {
+        return quarantineSkips.get();
+    }
+
+    public int getQuarantineSize() {
+        return quarantine.size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "Extraction watchdog : " + getTimeoutCount() + " timeouts, " + getAllocationLimitExceededCount() + " over allocation limit, "
+                + getQuarantineSkipCount() + " skipped, " + getQuarantineSize() + " files in quarantine, "
+                + getAbandonedThreadCount() + " aborted still running, " + getRefusedExtractionCount() + " refused";
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Entry point of a forked extraction process. The first frame on stdin is the configuration, which
+ * is answered with an empty frame once the worker is ready. Every following frame is the path of a
+ * file to extract. Each is answered with the extracted content as JSON, or with the length NO_CONTENT
+ * and no payload if nothing could be extracted. Frames are an int length followed by the UTF-8
+ * encoded payload.
+ */
+public class ExtractionWorker {
+
+    static final int NO_CONTENT = -1;
+
+    // Requests are the configuration or a path
+    static final int MAX_REQUEST_LENGTH = 16 * 1024 * 1024;
+
+    // The metadata is not limited by the character limit of the content
+    private static final int METADATA_ALLOWANCE = 4 * 1024 * 1024;
+
+    /**
+     * Upper bound of the length of an answer, as JSON needs at most 6 bytes for a character.
+     */
+    static int maxResponseLength(int aMaxCharactersPerDocument) {
+        if (aMaxCharactersPerDocument < 0) {
+            // The content is not limited
+            return Integer.MAX_VALUE - 8;
+        }
+        return (int) Math.min(Integer.MAX_VALUE - 8, aMaxCharactersPerDocument * 6L + METADATA_ALLOWANCE);
+    }
+
+    /**
+     * Reads a frame, a length outside of the protocol means the stream is corrupted.
+     */
+    static byte[] readFrame(DataInputStream aInput, int aMaxLength) throws IOException {
+        int theLength = aInput.readInt();
+        if (theLength == NO_CONTENT) {
+            return null;
+        }
+        if (theLength < NO_CONTENT || theLength > aMaxLength) {
+            throw new IOException("Invalid frame length " + theLength);
+        }
+        byte[] theFrame = new byte[theLength];
+        aInput.readFully(theFrame);
+        return theFrame;
+    }
+
+    static void writeFrame(DataOutputStream aOutput, byte[] aFrame) throws IOException {
+        if (aFrame == null) {
+            aOutput.writeInt(NO_CONTENT);
+        } else {
+            aOutput.writeInt(aFrame.length);
+            aOutput.write(aFrame);
+        }
+        aOutput.flush();
+    }
+
+    public static void main(String[] aArgs) throws IOException {
+        // stdout belongs to the protocol, so parsers printing to System.out must not corrupt it
+        DataOutputStream theOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        BasicConfigurator.configure(new ConsoleAppender(new PatternLayout("%d{dd MMM yyyy HH:mm:ss} %5p %c{1} [worker] - %m%n"), ConsoleAppender.SYSTEM_ERR));
+        Logger theLogger = Logger.getLogger(ExtractionWorker.class);
+
+        DataInputStream theInput = new DataInputStream(new BufferedInputStream(System.in));
+        ObjectMapper theMapper = new ObjectMapper();
+        Configuration theConfiguration = theMapper.readValue(readFrame(theInput, MAX_REQUEST_LENGTH), Configuration.class);
+        ContentExtractor theExtractor = new ContentExtractor(theConfiguration);
+        writeFrame(theOutput, new byte[0]);
+
+        while (true) {
+            byte[] theRequest;
+            try {
+                theRequest = readFrame(theInput, MAX_REQUEST_LENGTH);
+            } catch (EOFException e) {
+                // The parent closed the pipe
+                return;
+            }
+            Path theFile = Paths.get(new String(theRequest, StandardCharsets.UTF_8));
+            Content theContent = null;
+            try {
+                BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+                theContent = theExtractor.extractContentFrom(theFile, theAttributes);
+            } catch (IOException e) {
+                theLogger.error("Error reading attributes of " + theFile, e);
+            }
+            writeFrame(theOutput, theContent != null ? theMapper.writeValueAsBytes(new CachedContent(theContent, theConfiguration.getMaxCharactersPerDocument())) : null);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts content in forked JVMs, so leaking or crashing parsers cannot take down the search process.
+ * Workers are started on demand and replaced after a number of documents, a crash or a timeout. Files
+ * crashing a worker or running into the timeout are quarantined by the watchdog. If a worker cannot be
+ * started, no file is to blame, so the caller extracts in process until starting is tried again.
+ */
+class ExtractionWorkerPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ExtractionWorkerPool.class);
+
+    // Booting the JVM and creating the parsers does not count against the timeout of the first file
+    private static final long STARTUP_TIMEOUT_MILLIS = 60000;
+    private static final long RESTART_DELAY_MILLIS = 60000;
+
+    private static class Worker {
+
+        private Process process;
+        private DataInputStream input;
+        private DataOutputStream output;
+        private int documents;
+
+        private boolean isRunning() {
+            return process != null && process.isAlive();
+        }
+
+        private synchronized void stop() {
+            if (process != null) {
+                process.destroyForcibly();
+                process = null;
+            }
+            documents = 0;
+        }
+    }
+
+    private final byte[] configuration;
+    private final int maxResponseLength;
+    private final ExtractionWatchdog watchdog;
+    private final int heapMegabytes;
+    private final int recycleAfter;
+    private final long timeoutMillis;
+    private final List<Worker> workers;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final ScheduledExecutorService timer;
+    private final ObjectMapper objectMapper;
+    private final AtomicLong documents;
+    private final AtomicLong starts;
+    private final AtomicLong failures;
+    private final AtomicLong startFailures;
+    private volatile long startBlockedUntil;
+    private volatile boolean shutdown;
+
+    public ExtractionWorkerPool(Configuration aConfiguration, ExtractionWatchdog aWatchdog, int aNumberOfWorkers, int aHeapMegabytes,
+            int aRecycleAfter, long aTimeoutMillis) throws IOException {
+        objectMapper = new ObjectMapper();
+        configuration = objectMapper.writeValueAsBytes(aConfiguration);
+        maxResponseLength = ExtractionWorker.maxResponseLength(aConfiguration.getMaxCharactersPerDocument());
+        watchdog = aWatchdog;
+        heapMegabytes = aHeapMegabytes;
+        recycleAfter = aRecycleAfter;
+        timeoutMillis = aTimeoutMillis;
+        workers = new ArrayList<>();
+        for (int i = 0; i < aNumberOfWorkers; i++) {
+            workers.add(new Worker());
+        }
+        idleWorkers = new LinkedBlockingQueue<>(workers);
+        timer = Executors.newSingleThreadScheduledExecutor(aRunnable -> {
+            Thread theThread = new Thread(aRunnable, "Extraction Worker Timeout");
+            theThread.setDaemon(true);
+            return theThread;
+        });
+        documents = new AtomicLong();
+        starts = new AtomicLong();
+        failures = new AtomicLong();
+        startFailures = new AtomicLong();
+    }
+
+    private synchronized Process launch(Worker aWorker) throws IOException {
+        if (shutdown) {
+            throw new IOException("Extraction workers are shut down");
+        }
+        String theJava = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> theCommand = new ArrayList<>();
+        theCommand.add(theJava);
+        theCommand.add("-Xmx" + heapMegabytes + "m");
+        // The worker reads the configuration like this process, so it needs the same module access
+        ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                .filter(aArgument -> aArgument.startsWith("--add-opens=")).forEach(theCommand::add);
+        theCommand.add("-Dlog4j.defaultInitOverride=true");
+        theCommand.add("-cp");
+        theCommand.add(System.getProperty("java.class.path"));
+        theCommand.add(ExtractionWorker.class.getName());
+        ProcessBuilder theBuilder = new ProcessBuilder(theCommand);
+        theBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        aWorker.process = theBuilder.start();
+        aWorker.input = new DataInputStream(new BufferedInputStream(aWorker.process.getInputStream()));
+        aWorker.output = new DataOutputStream(new BufferedOutputStream(aWorker.process.getOutputStream()));
+        return aWorker.process;
+    }
+
+    private void start(Worker aWorker) throws IOException {
+        if (System.currentTimeMillis() < startBlockedUntil) {
+            throw new IOException("Extraction workers failed to start recently");
+        }
+        Process theProcess = launch(aWorker);
+        ScheduledFuture<?> theTimeout = timer.schedule(theProcess::destroyForcibly, STARTUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            ExtractionWorker.writeFrame(aWorker.output, configuration);
+            byte[] theReady = ExtractionWorker.readFrame(aWorker.input, 0);
+            if (theReady == null) {
+                throw new IOException("Unexpected answer of the extraction worker");
+            }
+        } catch (IOException e) {
+            aWorker.stop();
+            if (!shutdown) {
+                startFailures.incrementAndGet();
+                startBlockedUntil = System.currentTimeMillis() + RESTART_DELAY_MILLIS;
+                LOGGER.error("Extraction worker could not be started, extracting in process for the next "
+                        + TimeUnit.MILLISECONDS.toSeconds(RESTART_DELAY_MILLIS) + " seconds", e);
+            }
+            throw e;
+        } finally {
+            theTimeout.cancel(false);
+        }
+        starts.incrementAndGet();
+    }
+
+    /**
+     * Returns the extracted content, or null if the worker could not extract anything, crashed, was killed
+     * because of the timeout or the pool was shut down. Throws an IOException if no worker could be started.
+     */
+    public CachedContent extract(Path aFile, BasicFileAttributes aAttributes) throws IOException, InterruptedException {
+        Worker theWorker = idleWorkers.take();
+        if (!theWorker.isRunning()) {
+            try {
+                start(theWorker);
+            } catch (IOException e) {
+                idleWorkers.add(theWorker);
+                if (shutdown) {
+                    return null;
+                }
+                throw e;
+            }
+        }
+
+        boolean theHealthy = false;
+        AtomicBoolean theTimedOut = new AtomicBoolean();
+        ScheduledFuture<?> theTimeout = null;
+        try {
+            Process theProcess = theWorker.process;
+            if (timeoutMillis > 0) {
+                theTimeout = timer.schedule(() -> {
+                    theTimedOut.set(true);
+                    theProcess.destroyForcibly();
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+
+            ExtractionWorker.writeFrame(theWorker.output, aFile.toString().getBytes(StandardCharsets.UTF_8));
+            // A corrupted length is an IOException, so the worker is replaced and the file quarantined
+            byte[] theResponse = ExtractionWorker.readFrame(theWorker.input, maxResponseLength);
+            theHealthy = true;
+            documents.incrementAndGet();
+            return theResponse != null ? objectMapper.readValue(theResponse, CachedContent.class) : null;
+        } catch (IOException e) {
+            if (shutdown) {
+                // Not the fault of the file
+                LOGGER.info("Extraction of " + aFile + " was stopped by the shutdown of the extraction workers");
+                return null;
+            }
+            failures.incrementAndGet();
+            if (theTimedOut.get()) {
+                watchdog.quarantine(aFile, aAttributes, "Extraction worker timed out after " + timeoutMillis + "ms for " + aFile);
+            } else {
+                LOGGER.error("Extraction worker failed for " + aFile, e);
+                watchdog.quarantine(aFile, aAttributes, "Extraction worker failed for " + aFile);
+            }
+            return null;
+        } finally {
+            if (theTimeout != null) {
+                theTimeout.cancel(false);
+            }
+            // Parsers leak, so workers are replaced from time to time
+            if (!theHealthy || ++theWorker.documents >= recycleAfter) {
+                theWorker.stop();
+            }
+            idleWorkers.add(theWorker);
+        }
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        timer.shutdownNow();
+        workers.forEach(Worker::stop);
+    }
+
+    public long getDocumentCount() {
+        return documents.get();
+    }
+
+    public long getStartCount() {
+        return starts.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getStartFailureCount() {
+        return startFailures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Extraction workers : " + getDocumentCount() + " documents, " + getStartCount() + " starts, " + getStartFailureCount()
+                + " failed starts, " + getFailureCount() + " failures";
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the facet state of the current searcher. Creating it walks all ordinals of all facet dimensions, so only the
+ * first query after a reopen pays for it.
+ */
+class FacetStateCache extends ReaderCache<SortedSetDocValuesReaderState> {
+
+    private long lookups;
+    private long misses;
+    private long buildNanos;
+
+    public synchronized SortedSetDocValuesReaderState getState(IndexReader aReader) throws IOException {
+        lookups++;
+        return get(aReader);
+    }
+
+    @Override
+    protected SortedSetDocValuesReaderState load(IndexReader aReader) throws IOException {
+        long theStart = System.nanoTime();
+        SortedSetDocValuesReaderState theState = new DefaultSortedSetDocValuesReaderState(aReader);
+        buildNanos += System.nanoTime() - theStart;
+        misses++;
+        return theState;
+    }
+
+    public synchronized long getHitCount() {
+        return lookups - misses;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the query time saved by the cache, assuming every hit would have taken the average build time
+     */
+    public synchronized long getSavedMillis() {
+        if (misses == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(buildNanos / misses * getHitCount());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FacetStateCache{hits=" + getHitCount() + ", misses=" + misses + ", averageBuildMillis="
+                + (misses == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(buildNanos / misses)) + ", savedMillis=" + getSavedMillis() + '}';
+    }
+}
@@ -29,4 +29,5 @@ public interface IndexFields {
     String FILESIZE = "filesize";
     String LASTMODIFIED = "lastmodified";
     String LOCATIONID = "locationId";
+    String SCHEMAVERSION = "schemaversion";
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.codecs.lucene50.Lucene50Codec;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriterConfig;
+
+/**
+ * How the extracted text is indexed. The full schema keeps term vectors with positions, offsets and payloads for the
+ * language field and the not stemmed field. The lean schema stores the text once in the compressed language field and
+ * keeps term vectors only for the not stemmed field, as the suggestions need its positions. Highlighting analyzes the
+ * stored text again, and MoreLikeThis does the same if there are no term vectors.
+ */
+class IndexSchema {
+
+    // Documents with another schema version are migrated or reindexed by the next crawl
+    static final long PRE_COLUMNS_VERSION = 0;
+    static final long FULL_VERSION = 1;
+    static final long LEAN_VERSION = 2;
+
+    private final boolean lean;
+    private final FieldType contentFieldType;
+    private final FieldType notStemmedFieldType;
+
+    public IndexSchema(boolean aLean) {
+        lean = aLean;
+
+        contentFieldType = new FieldType();
+        contentFieldType.setStored(true);
+        contentFieldType.setTokenized(true);
+
+        notStemmedFieldType = new FieldType();
+        notStemmedFieldType.setStored(false);
+        notStemmedFieldType.setTokenized(true);
+        notStemmedFieldType.setStoreTermVectors(true);
+        notStemmedFieldType.setStoreTermVectorPositions(true);
+        notStemmedFieldType.setStoreTermVectorOffsets(true);
+
+        if (aLean) {
+            contentFieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+            notStemmedFieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        } else {
+            contentFieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+            contentFieldType.setStoreTermVectors(true);
+            contentFieldType.setStoreTermVectorPositions(true);
+            contentFieldType.setStoreTermVectorOffsets(true);
+            contentFieldType.setStoreTermVectorPayloads(true);
+
+            notStemmedFieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+            notStemmedFieldType.setStoreTermVectorPayloads(true);
+        }
+
+        contentFieldType.freeze();
+        notStemmedFieldType.freeze();
+    }
+
+    public static IndexSchema forConfiguration(Configuration aConfiguration) {
+        return new IndexSchema(aConfiguration.isLeanIndexSchema());
+    }
+
+    public void configure(IndexWriterConfig aConfig) {
+        if (lean) {
+            // Stored fields are only read for the displayed results, so size matters more than speed
+            aConfig.setCodec(new Lucene50Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION));
+        }
+    }
+
+    public long getVersion() {
+        return lean ? LEAN_VERSION : FULL_VERSION;
+    }
+
+    public boolean isMigratable(long aVersion) {
+        // Documents written before the doc values columns have everything needed for the rebuild in stored fields
+        return aVersion == PRE_COLUMNS_VERSION || aVersion == FULL_VERSION || aVersion == LEAN_VERSION;
+    }
+
+    public FieldType getContentFieldType() {
+        return contentFieldType;
+    }
+
+    public FieldType getNotStemmedFieldType() {
+        return notStemmedFieldType;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+
+/**
+ * Rewrites an existing index to the schema selected by the configuration, without extracting the files again.
+ * The lean schema is only used if leanIndexSchema is switched on in the configuration file, so existing indexes
+ * keep their schema unless the user opts in. The index must not be used by a running search while this runs.
+ * The same migration is also done before every crawl.
+ */
+public class IndexSchemaMigration {
+
+    private static final Logger LOGGER = Logger.getLogger(IndexSchemaMigration.class);
+
+    public static void main(String[] aArgs) throws Exception {
+        if (aArgs.length != 1) {
+            System.err.println("Usage: IndexSchemaMigration <configuration directory>");
+            System.exit(1);
+        }
+        BasicConfigurator.configure();
+
+        File theConfigDirectory = new File(aArgs[0]);
+        Configuration theConfiguration = new ConfigurationManager(theConfigDirectory).getConfiguration();
+        LuceneIndexHandler theHandler = new LuceneIndexHandler(theConfiguration, new AnalyzerCache(theConfiguration), null, null);
+        try {
+            int theMigratedDocuments = theHandler.migrateSchema();
+            LOGGER.info(theMigratedDocuments + " documents migrated to the " + (theConfiguration.isLeanIndexSchema() ? "lean" : "full") + " index schema");
+        } finally {
+            // Closing the IndexWriter commits the migrated documents
+            theHandler.shutdown();
+        }
+    }
+}
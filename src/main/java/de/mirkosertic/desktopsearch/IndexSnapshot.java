@@ -0,0 +1,225 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Immutable filename to last modified mapping of all indexed documents, taken at crawl start.
+ *
+ * Filenames are kept as sorted UTF-8 bytes in a single array, so even millions of entries
+ * need only a fraction of the memory of a HashMap. The snapshot also tracks which filenames
+ * were seen by the crawler, so files missing on disk can be detected without another pass.
+ */
+class IndexSnapshot {
+
+    /**
+     * Last modified value for entries which must be reindexed regardless of the file on disk.
+     */
+    static final long FORCE_UPDATE = Long.MIN_VALUE;
+
+    static class Builder {
+
+        private byte[][] fileNames;
+        private long[] lastModified;
+        private int size;
+
+        public Builder() {
+            fileNames = new byte[1024][];
+            lastModified = new long[1024];
+        }
+
+        public void add(String aFileName, long aLastModified) {
+            if (size == lastModified.length) {
+                fileNames = Arrays.copyOf(fileNames, size * 2);
+                lastModified = Arrays.copyOf(lastModified, size * 2);
+            }
+            fileNames[size] = aFileName.getBytes(StandardCharsets.UTF_8);
+            lastModified[size] = aLastModified;
+            size++;
+        }
+
+        // A merge sort of the entry indexes, so no entry is boxed for a comparator
+        private void sort(int[] aOrder, int[] aBuffer, int aFrom, int aTo) {
+            if (aTo - aFrom < 2) {
+                return;
+            }
+            int theMiddle = (aFrom + aTo) >>> 1;
+            sort(aOrder, aBuffer, aFrom, theMiddle);
+            sort(aOrder, aBuffer, theMiddle, aTo);
+            if (compare(fileNames[aOrder[theMiddle - 1]], fileNames[aOrder[theMiddle]]) <= 0) {
+                return;
+            }
+            System.arraycopy(aOrder, aFrom, aBuffer, aFrom, aTo - aFrom);
+            int theLeft = aFrom;
+            int theRight = theMiddle;
+            int theTarget = aFrom;
+            while (theLeft < theMiddle && theRight < aTo) {
+                if (compare(fileNames[aBuffer[theLeft]], fileNames[aBuffer[theRight]]) <= 0) {
+                    aOrder[theTarget++] = aBuffer[theLeft++];
+                } else {
+                    aOrder[theTarget++] = aBuffer[theRight++];
+                }
+            }
+            System.arraycopy(aBuffer, theLeft, aOrder, theTarget, theMiddle - theLeft);
+            System.arraycopy(aBuffer, theRight, aOrder, theTarget + theMiddle - theLeft, aTo - theRight);
+        }
+
+        public IndexSnapshot build() {
+            int[] theOrder = new int[size];
+            for (int i = 0; i < size; i++) {
+                theOrder[i] = i;
+            }
+            sort(theOrder, new int[size], 0, size);
+
+            int theTotalLength = 0;
+            for (int i = 0; i < size; i++) {
+                theTotalLength += fileNames[i].length;
+            }
+
+            byte[] theData = new byte[theTotalLength];
+            int[] theOffsets = new int[size + 1];
+            long[] theLastModified = new long[size];
+            int theCount = 0;
+            int theOffset = 0;
+            byte[] thePrevious = null;
+            for (int theIndex : theOrder) {
+                byte[] theName = fileNames[theIndex];
+                if (thePrevious != null && compare(thePrevious, theName) == 0) {
+                    // Multiple documents for the same file, the file needs to be reindexed to clean this up
+                    theLastModified[theCount - 1] = FORCE_UPDATE;
+                    continue;
+                }
+                System.arraycopy(theName, 0, theData, theOffset, theName.length);
+                theOffsets[theCount] = theOffset;
+                theLastModified[theCount] = lastModified[theIndex];
+                theOffset += theName.length;
+                theCount++;
+                thePrevious = theName;
+            }
+            theOffsets[theCount] = theOffset;
+
+            return new IndexSnapshot(theData, Arrays.copyOf(theOffsets, theCount + 1), Arrays.copyOf(theLastModified, theCount));
+        }
+    }
+
+    private final byte[] fileNames;
+    private final int[] offsets;
+    private final long[] lastModified;
+    private final AtomicLongArray seen;
+
+    private IndexSnapshot(byte[] aFileNames, int[] aOffsets, long[] aLastModified) {
+        fileNames = aFileNames;
+        offsets = aOffsets;
+        lastModified = aLastModified;
+        seen = new AtomicLongArray((aLastModified.length + 63) >>> 6);
+    }
+
+    private static int compare(byte[] aLeft, byte[] aRight) {
+        return compare(aLeft, 0, aLeft.length, aRight, 0, aRight.length);
+    }
+
+    private static int compare(byte[] aLeft, int aLeftOffset, int aLeftLength, byte[] aRight, int aRightOffset, int aRightLength) {
+        int theLength = Math.min(aLeftLength, aRightLength);
+        for (int i = 0; i < theLength; i++) {
+            int theDiff = (aLeft[aLeftOffset + i] & 0xff) - (aRight[aRightOffset + i] & 0xff);
+            if (theDiff != 0) {
+                return theDiff;
+            }
+        }
+        return aLeftLength - aRightLength;
+    }
+
+    private int indexOf(String aFileName) {
+        byte[] theKey = aFileName.getBytes(StandardCharsets.UTF_8);
+        int theLow = 0;
+        int theHigh = lastModified.length - 1;
+        while (theLow <= theHigh) {
+            int theMiddle = (theLow + theHigh) >>> 1;
+            int theResult = compare(fileNames, offsets[theMiddle], offsets[theMiddle + 1] - offsets[theMiddle], theKey, 0, theKey.length);
+            if (theResult < 0) {
+                theLow = theMiddle + 1;
+            } else if (theResult > 0) {
+                theHigh = theMiddle - 1;
+            } else {
+                return theMiddle;
+            }
+        }
+        return -1;
+    }
+
+    private void markSeen(int aIndex) {
+        int theWord = aIndex >>> 6;
+        long theMask = 1L << (aIndex & 63);
+        while (true) {
+            long theValue = seen.get(theWord);
+            if ((theValue & theMask) != 0 || seen.compareAndSet(theWord, theValue, theValue | theMask)) {
+                return;
+            }
+        }
+    }
+
+    private boolean isSeen(int aIndex) {
+        return (seen.get(aIndex >>> 6) & (1L << (aIndex & 63))) != 0;
+    }
+
+    public UpdateCheckResult checkIfModified(String aFileName, long aLastModified) {
+        int theIndex = indexOf(aFileName);
+        if (theIndex < 0) {
+            return UpdateCheckResult.UPDATED;
+        }
+        markSeen(theIndex);
+        if (lastModified[theIndex] != aLastModified) {
+            return UpdateCheckResult.UPDATED;
+        }
+        return UpdateCheckResult.UNMODIFIED;
+    }
+
+    public void markSeen(String aFileName) {
+        int theIndex = indexOf(aFileName);
+        if (theIndex >= 0) {
+            markSeen(theIndex);
+        }
+    }
+
+    public List<String> getUnseenFileNames(String aPrefix) {
+        List<String> theResult = new ArrayList<>();
+        for (int i = 0; i < lastModified.length; i++) {
+            if (!isSeen(i)) {
+                String theFileName = new String(fileNames, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+                if (theFileName.startsWith(aPrefix)) {
+                    theResult.add(theFileName);
+                }
+            }
+        }
+        return theResult;
+    }
+
+    public int getForcedUpdateCount() {
+        int theResult = 0;
+        for (long theLastModified : lastModified) {
+            if (theLastModified == FORCE_UPDATE) {
+                theResult++;
+            }
+        }
+        return theResult;
+    }
+
+    public int size() {
+        return lastModified.length;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.document.Document;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+class IndexingJob {
+
+    private final Configuration.CrawlLocation location;
+    private final Path file;
+    private final boolean foundByCrawler;
+    private BasicFileAttributes attributes;
+    private Content content;
+    private Document document;
+
+    public IndexingJob(Configuration.CrawlLocation aLocation, Path aFile, boolean aFoundByCrawler) {
+        location = aLocation;
+        file = aFile;
+        foundByCrawler = aFoundByCrawler;
+    }
+
+    public IndexingJob(Configuration.CrawlLocation aLocation, Path aFile, BasicFileAttributes aAttributes) {
+        this(aLocation, aFile, true);
+        attributes = aAttributes;
+    }
+
+    public Configuration.CrawlLocation getLocation() {
+        return location;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public boolean isFoundByCrawler() {
+        return foundByCrawler;
+    }
+
+    public BasicFileAttributes getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(BasicFileAttributes aAttributes) {
+        attributes = aAttributes;
+    }
+
+    public Content getContent() {
+        return content;
+    }
+
+    public void setContent(Content aContent) {
+        content = aContent;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public void setDocument(Document aDocument) {
+        document = aDocument;
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Indexing is split into stages, each with its own thread pool and a bounded queue
+ * in front of it. A saturated stage blocks the submitting stage, so the crawler
+ * cannot run ahead of Tika or the IndexWriter.
+ *
+ * discovery (crawler or watcher) -> change detection -> content extraction -> document building -> index writer
+ */
+class IndexingPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(IndexingPipeline.class);
+
+    private static final int NUMBER_OF_PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    interface Step {
+        /**
+         * @return true if the job should be passed on to the next stage
+         */
+        boolean process(IndexingJob aJob) throws Exception;
+    }
+
+    private final PipelineStage<IndexingJob> changeDetectionStage;
+    private final PipelineStage<IndexingJob> extractionStage;
+    private final PipelineStage<IndexingJob> documentBuildingStage;
+    private final PipelineStage<IndexingJob> indexWriterStage;
+    private final List<PipelineStage<IndexingJob>> stages;
+    private final BiConsumer<IndexingJob, Exception> errorHandler;
+    private final Object inFlightLock;
+    private long inFlight;
+
+    public IndexingPipeline(Step aChangeDetection, Step aExtraction, Step aDocumentBuilding, Step aIndexWriter, BiConsumer<IndexingJob, Exception> aErrorHandler) {
+        errorHandler = aErrorHandler;
+        inFlightLock = new Object();
+
+        // Stages are created in reverse order, as every stage needs to know its successor
+        // Stat and index lookups are I/O bound, so we can use more threads than cores here
+        // Extraction is CPU bound, and extracted content is large, so its successor queues are kept short
+        indexWriterStage = new PipelineStage<>("Index writer", Math.max(1, NUMBER_OF_PROCESSORS / 2), 16,
+                aJob -> runStep(aIndexWriter, aJob, null));
+        documentBuildingStage = new PipelineStage<>("Document building", Math.max(1, NUMBER_OF_PROCESSORS / 4), 16,
+                aJob -> runStep(aDocumentBuilding, aJob, indexWriterStage));
+        extractionStage = new PipelineStage<>("Content extraction", NUMBER_OF_PROCESSORS, 2 * NUMBER_OF_PROCESSORS,
+                aJob -> runStep(aExtraction, aJob, documentBuildingStage));
+        changeDetectionStage = new PipelineStage<>("Change detection", 2 * NUMBER_OF_PROCESSORS, 1000,
+                aJob -> runStep(aChangeDetection, aJob, extractionStage));
+
+        List<PipelineStage<IndexingJob>> theStages = new ArrayList<>();
+        theStages.add(changeDetectionStage);
+        theStages.add(extractionStage);
+        theStages.add(documentBuildingStage);
+        theStages.add(indexWriterStage);
+        stages = Collections.unmodifiableList(theStages);
+    }
+
+    private void runStep(Step aStep, IndexingJob aJob, PipelineStage<IndexingJob> aNextStage) {
+        boolean theJobPassedOn = false;
+        try {
+            if (aStep.process(aJob) && aNextStage != null) {
+                aNextStage.submit(aJob);
+                theJobPassedOn = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            errorHandler.accept(aJob, e);
+        } finally {
+            if (!theJobPassedOn) {
+                jobFinished();
+            }
+        }
+    }
+
+    private void jobFinished() {
+        synchronized (inFlightLock) {
+            inFlight--;
+            if (inFlight == 0) {
+                inFlightLock.notifyAll();
+            }
+        }
+    }
+
+    public void submit(IndexingJob aJob) throws InterruptedException {
+        synchronized (inFlightLock) {
+            inFlight++;
+        }
+        try {
+            changeDetectionStage.submit(aJob);
+        } catch (InterruptedException e) {
+            jobFinished();
+            throw e;
+        }
+    }
+
+    public void awaitIdle() throws InterruptedException {
+        synchronized (inFlightLock) {
+            while (inFlight > 0) {
+                inFlightLock.wait();
+            }
+        }
+    }
+
+    public boolean isIdle() {
+        synchronized (inFlightLock) {
+            return inFlight == 0;
+        }
+    }
+
+    public void resetStatistics() {
+        stages.forEach(PipelineStage::resetStatistics);
+    }
+
+    public void logStatistics() {
+        stages.forEach(theStage -> LOGGER.info(theStage.toString()));
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.tika.language.LanguageIdentifier;
+import org.apache.tika.language.ProfilingWriter;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Identifies the language of extracted text by profiling a sample instead of the whole text. The sample consists of
+ * a prefix and a few evenly spaced windows of the remaining text. Folders usually contain documents of a single
+ * language, so once some documents of a folder agreed on a language, it is reused and only verified now and then.
+ */
+class LanguageDetector {
+
+    static final int PREFIX_LENGTH = 4096;
+    static final int WINDOW_LENGTH = 1024;
+    static final int WINDOW_COUNT = 3;
+
+    private static final int MIN_LENGTH_FOR_DIRECTORY_CACHE = 256;
+    private static final int AGREEMENTS_TO_TRUST_DIRECTORY = 3;
+    private static final int VERIFY_DIRECTORY_EVERY = 16;
+    private static final int MAX_DIRECTORIES = 1024;
+
+    private static class DirectoryLanguage {
+        String language;
+        int agreements;
+        int uses;
+    }
+
+    private final Map<Path, DirectoryLanguage> languageByDirectory;
+    private final AtomicLong detections;
+    private final AtomicLong directoryHits;
+
+    public LanguageDetector() {
+        languageByDirectory = new LinkedHashMap<Path, DirectoryLanguage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, DirectoryLanguage> aEldest) {
+                return size() > MAX_DIRECTORIES;
+            }
+        };
+        detections = new AtomicLong();
+        directoryHits = new AtomicLong();
+    }
+
+    public String detectLanguage(Path aFile, String aText) {
+        Path theDirectory = aFile.getParent();
+        if (theDirectory == null || aText.length() < MIN_LENGTH_FOR_DIRECTORY_CACHE) {
+            // Short texts are cheap to profile, and mostly too short to say something about the folder
+            detections.incrementAndGet();
+            return identifySample(aText).getLanguage();
+        }
+
+        DirectoryLanguage theDirectoryLanguage;
+        synchronized (languageByDirectory) {
+            theDirectoryLanguage = languageByDirectory.computeIfAbsent(theDirectory, k -> new DirectoryLanguage());
+        }
+        synchronized (theDirectoryLanguage) {
+            if (theDirectoryLanguage.agreements >= AGREEMENTS_TO_TRUST_DIRECTORY
+                    && ++theDirectoryLanguage.uses % VERIFY_DIRECTORY_EVERY != 0) {
+                directoryHits.incrementAndGet();
+                return theDirectoryLanguage.language;
+            }
+        }
+
+        detections.incrementAndGet();
+        String theLanguage = identifySample(aText).getLanguage();
+        synchronized (theDirectoryLanguage) {
+            if (theLanguage.equals(theDirectoryLanguage.language)) {
+                theDirectoryLanguage.agreements++;
+            } else {
+                // Mixed folder, start over
+                theDirectoryLanguage.language = theLanguage;
+                theDirectoryLanguage.agreements = 1;
+                theDirectoryLanguage.uses = 0;
+            }
+        }
+        return theLanguage;
+    }
+
+    static LanguageIdentifier identifySample(String aText) {
+        int theLength = aText.length();
+        if (theLength <= PREFIX_LENGTH + WINDOW_COUNT * WINDOW_LENGTH) {
+            return new LanguageIdentifier(aText);
+        }
+
+        ProfilingWriter theWriter = new ProfilingWriter();
+        char[] theBuffer = new char[PREFIX_LENGTH];
+        aText.getChars(0, PREFIX_LENGTH, theBuffer, 0);
+        theWriter.write(theBuffer, 0, PREFIX_LENGTH);
+
+        int theInterior = theLength - PREFIX_LENGTH;
+        for (int i = 1; i <= WINDOW_COUNT; i++) {
+            int theStart = PREFIX_LENGTH + (int) ((long) theInterior * i / (WINDOW_COUNT + 1)) - WINDOW_LENGTH / 2;
+            theStart = Math.max(PREFIX_LENGTH, Math.min(theStart, theLength - WINDOW_LENGTH));
+
+            // A blank separates the windows, so no n-grams are built across the cut
+            theBuffer[0] = ' ';
+            aText.getChars(theStart, theStart + WINDOW_LENGTH, theBuffer, 1);
+            theWriter.write(theBuffer, 0, WINDOW_LENGTH + 1);
+        }
+        return theWriter.getLanguage();
+    }
+
+    public long getDetections() {
+        return detections.get();
+    }
+
+    public long getDirectoryHits() {
+        return directoryHits.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LanguageDetector{detections=" + detections.get() + ", directoryHits=" + directoryHits.get() + '}';
+    }
+}
@@ -13,7 +13,6 @@
 package de.mirkosertic.desktopsearch;
 
 import org.apache.commons.codec.EncoderException;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -22,7 +21,6 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.facet.*;
 import org.apache.lucene.facet.range.LongRange;
 import org.apache.lucene.facet.range.LongRangeFacetCounts;
-import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
@@ -32,17 +30,22 @@ import org.apache.lucene.search.*;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.TextFragment;
+import org.apache.lucene.search.highlight.WeightedSpanTerm;
+import org.apache.lucene.search.highlight.WeightedSpanTermExtractor;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
 import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
-import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
-import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
 
 class LuceneIndexHandler {
 
@@ -55,11 +58,18 @@ class LuceneIndexHandler {
     private final AnalyzerCache analyzerCache;
     private final Analyzer analyzer;
     private final FacetsConfig facetsConfig;
-    private final Thread commitThread;
-    private final FieldType contentFieldType;
+    private final CommitScheduler commitScheduler;
+    private final TrackingIndexWriter trackingIndexWriter;
+    // Keeps the searcher fresh, so queries acquire it without waiting for a reopen
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    private final FacetStateCache facetStateCache;
+    private final PopulatedFieldsCache populatedFieldsCache;
+    private final QueryResultCache queryResultCache;
+    private final IndexSchema schema;
     private final ExecutorPool executorPool;
     private final Configuration configuration;
     private final PreviewProcessor previewProcessor;
+    private final ThreadLocal<DocumentBuilder> documentBuilder;
 
     public LuceneIndexHandler(Configuration aConfiguration, AnalyzerCache aAnalyzerCache, ExecutorPool aExecutorPool, PreviewProcessor aPreviewProcessor) throws IOException {
         previewProcessor = aPreviewProcessor;
@@ -67,14 +77,7 @@ class LuceneIndexHandler {
         analyzerCache = aAnalyzerCache;
         executorPool = aExecutorPool;
 
-        contentFieldType = new FieldType();
-        contentFieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
-        contentFieldType.setStored(true);
-        contentFieldType.setTokenized(true);
-        contentFieldType.setStoreTermVectorOffsets(true);
-        contentFieldType.setStoreTermVectorPayloads(true);
-        contentFieldType.setStoreTermVectorPositions(true);
-        contentFieldType.setStoreTermVectors(true);
+        schema = IndexSchema.forConfiguration(aConfiguration);
 
         analyzer = analyzerCache.getAnalyzer();
 
@@ -85,147 +88,97 @@ class LuceneIndexHandler {
 
         IndexWriterConfig theConfig = new IndexWriterConfig(analyzer);
         theConfig.setSimilarity(new CustomSimilarity());
+        schema.configure(theConfig);
         indexWriter = new IndexWriter(theIndexFSDirectory, theConfig);
 
         searcherManager = new SearcherManager(indexWriter, true, new SearcherFactory());
+        facetStateCache = new FacetStateCache();
+        searcherManager.addListener(facetStateCache);
+        populatedFieldsCache = new PopulatedFieldsCache(analyzerCache.getAllFieldNames());
+        searcherManager.addListener(populatedFieldsCache);
+        queryResultCache = new QueryResultCache(aConfiguration.getQueryResultCacheEntries(),
+                aConfiguration.getQueryResultCacheMegabytes() * 1024L * 1024L);
+        searcherManager.addListener(queryResultCache);
+
+        // Changes become visible in the background after at most the max staleness, callers waiting
+        // for a generation get a reopen after the min staleness
+        trackingIndexWriter = new TrackingIndexWriter(indexWriter);
+        reopenThread = new ControlledRealTimeReopenThread<>(trackingIndexWriter, searcherManager,
+                aConfiguration.getSearcherMaxStaleMillis() / 1000.0, aConfiguration.getSearcherMinStaleMillis() / 1000.0);
+        reopenThread.setName("Lucene NRT Reopen Thread");
+        reopenThread.setDaemon(true);
+        reopenThread.start();
+
+        commitScheduler = new CommitScheduler(indexWriter, searcherManager);
+        commitScheduler.start();
+
+        facetsConfig = new MultiValuedFacetsConfig();
+        documentBuilder = ThreadLocal.withInitial(() -> new DocumentBuilder(analyzerCache, facetsConfig, schema));
+    }
 
-        commitThread = new Thread("Lucene Commit Thread") {
-            @Override
-            public void run() {
-                while (!isInterrupted()) {
-
-                    if (indexWriter.hasUncommittedChanges()) {
-                        try {
-                            indexWriter.commit();
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
+    public void setCommitListener(CommitListener aListener) {
+        commitScheduler.setCommitListener(aListener);
+    }
 
-                    try {
-                        Thread.sleep(2000);
-                    } catch (InterruptedException e) {
-                        // Do nothing here
-                    }
-                }
-            }
-        };
-        commitThread.start();
+    public FacetStateCache getFacetStateCache() {
+        return facetStateCache;
+    }
+
+    public PopulatedFieldsCache getPopulatedFieldsCache() {
+        return populatedFieldsCache;
+    }
 
-        facetsConfig = new FacetsConfig();
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
     }
 
     public void crawlingStarts() throws IOException {
         searcherManager.maybeRefreshBlocking();
+        commitScheduler.crawlingStarts();
     }
 
-    public void addToIndex(String aLocationId, Content aContent) throws IOException {
-        Document theDocument = new Document();
-
-        SupportedLanguage theLanguage = aContent.getLanguage();
-
-        theDocument.add(new StringField(IndexFields.UNIQUEID, UUID.randomUUID().toString(), Field.Store.YES));
-        theDocument.add(new StringField(IndexFields.FILENAME, aContent.getFileName(), Field.Store.YES));
-        theDocument.add(new SortedSetDocValuesFacetField(IndexFields.LANGUAGEFACET, theLanguage.name()));
-        theDocument.add(new TextField(IndexFields.LANGUAGESTORED, theLanguage.name(), Field.Store.YES));
-
-        StringBuilder theContentAsString = new StringBuilder(aContent.getFileContent());
-
-        aContent.getMetadata().forEach(theEntry -> {
-            if (!StringUtils.isEmpty(theEntry.key)) {
-                Object theValue = theEntry.value;
-                if (theValue instanceof String) {
-                    facetsConfig.setMultiValued(theEntry.key, true);
-                    String theStringValue = (String) theValue;
-                    theContentAsString.append(" ").append(theStringValue);
-                    // we want to process special cases here and not in ContentExtractor to preserve possible units
-                    switch (theEntry.key) {
-                    case "focal-length-35":
-                    case "image-height":
-                        try {
-                            Long len = NumberFormat.getIntegerInstance().parse(theStringValue).longValue();
-                            theDocument.add(new NumericDocValuesField(theEntry.key, len));
-                        } catch (java.text.ParseException e) {
-                        }
-                        break;
-                    default:
-                        if (!StringUtils.isEmpty(theStringValue)) {
-                            theDocument.add(new SortedSetDocValuesFacetField(theEntry.key, theStringValue));
-                        }
-                    }
-                }
-                if (theValue instanceof ZonedDateTime) {
-                    facetsConfig.setHierarchical(theEntry.key, true);
-                    ZonedDateTime theDateValue = (ZonedDateTime) theValue;
-
-                    // Full-Path
-                    {
-                        String thePathInfo = String.format(
-                                "%04d/%02d/%02d",
-                                theDateValue.getYear(),
-                                theDateValue.getMonthValue(),
-                                theDateValue.getDayOfMonth());
-
-                        theContentAsString.append(" ").append(thePathInfo);
-
-                        facetsConfig.setMultiValued(theEntry.key+"-year-month-day", true);
-                        theDocument.add(new SortedSetDocValuesFacetField(theEntry.key+"-year-month-day", thePathInfo));
-                    }
-                    // Year
-                    {
-                        String thePathInfo = String.format(
-                                "%04d",
-                                theDateValue.getYear());
-
-                        theContentAsString.append(" ").append(thePathInfo);
-
-                        facetsConfig.setMultiValued(theEntry.key+"-year", true);
-                        theDocument.add(new SortedSetDocValuesFacetField(theEntry.key+"-year", thePathInfo));
-                    }
-                    // Year-month
-                    {
-                        String thePathInfo = String.format(
-                                "%04d/%02d",
-                                theDateValue.getYear(),
-                                theDateValue.getMonthValue());
-
-                        theContentAsString.append(" ").append(thePathInfo);
-
-                        facetsConfig.setMultiValued(theEntry.key+"-year-month", true);
-                        theDocument.add(new SortedSetDocValuesFacetField(theEntry.key+"-year-month", thePathInfo));
-                    }
-
-                }
-            }
-        });
-        String content = theContentAsString.toString();
-
-        if (analyzerCache.supportsLanguage(theLanguage)) {
-            LOGGER.info("Language and analyzer " + theLanguage+" detected for " + aContent.getFileName()+", using the corresponding language index field");
-            String theFieldName = analyzerCache.getFieldNameFor(theLanguage);
-            theDocument.add(new Field(theFieldName, content, contentFieldType));
-        } else {
-            LOGGER.info("No matching language and analyzer detected for " + theLanguage+" and " + aContent.getFileName()+", using the default index field and analyzer");
-            theDocument.add(new Field(IndexFields.CONTENT, content, contentFieldType));
-        }
+    public void crawlingFinished() throws IOException {
+        commitScheduler.crawlingFinished();
+        LOGGER.info(commitScheduler);
+    }
 
-        theDocument.add(new Field(IndexFields.CONTENT_NOT_STEMMED, content, contentFieldType));
+    public long addToIndex(String aLocationId, Content aContent) throws IOException {
+        return writeDocument(aContent.getFileName(), buildDocument(aLocationId, aContent));
+    }
 
-        theDocument.add(new TextField(IndexFields.CONTENTMD5, DigestUtils.md5Hex(content), Field.Store.YES));
-        theDocument.add(new StringField(IndexFields.LOCATIONID, aLocationId, Field.Store.YES));
-        theDocument.add(new LongField(IndexFields.FILESIZE, aContent.getFileSize(), Field.Store.YES));
-        theDocument.add(new LongField(IndexFields.LASTMODIFIED, aContent.getLastModified(), Field.Store.YES));
+    public Document buildDocument(String aLocationId, Content aContent) throws IOException {
+        return documentBuilder.get().build(aLocationId, aContent);
+    }
 
+    /**
+     * @return the generation to pass to {@link #awaitGeneration(long, int)} to search the written document
+     */
+    public long writeDocument(String aFileName, Document aDocument) throws IOException {
         // Update the document in our search index
-        indexWriter.updateDocument(new Term(IndexFields.FILENAME, aContent.getFileName()), facetsConfig.build(theDocument));
+        long theGeneration = trackingIndexWriter.updateDocument(new Term(IndexFields.FILENAME, aFileName), aDocument);
+        IndexableField theFileSize = aDocument.getField(IndexFields.FILESIZE);
+        commitScheduler.documentChanged(theFileSize != null ? theFileSize.numericValue().longValue() : 0);
+        return theGeneration;
+    }
+
+    public long removeFromIndex(String aFileName) throws IOException {
+        long theGeneration = trackingIndexWriter.deleteDocuments(new Term(IndexFields.FILENAME, aFileName));
+        commitScheduler.documentChanged(0);
+        return theGeneration;
     }
 
-    public void removeFromIndex(String aFileName) throws IOException {
-        indexWriter.deleteDocuments(new Term(IndexFields.FILENAME, aFileName));
+    /**
+     * Waits until searches see all changes up to the given generation.
+     *
+     * @return false if the generation was not visible within the given time
+     */
+    public boolean awaitGeneration(long aGeneration, int aMaxMillis) throws InterruptedException {
+        return reopenThread.waitForGeneration(aGeneration, aMaxMillis);
     }
 
     public void shutdown() {
-        commitThread.interrupt();
+        reopenThread.close();
+        commitScheduler.shutdown();
         try {
             indexWriter.close();
         } catch (Exception e) {
@@ -249,20 +202,31 @@ class LuceneIndexHandler {
 
         IndexSearcher theSearcher = searcherManager.acquire();
         try {
-            Query theQuery = new TermQuery(new Term(IndexFields.FILENAME, aFilename));
-            TopDocs theDocs = theSearcher.search(theQuery, null, 100);
-            if (theDocs.scoreDocs.length == 0) {
-                return UpdateCheckResult.UPDATED;
+            IndexReader theReader = theSearcher.getIndexReader();
+            Term theTerm = new Term(IndexFields.FILENAME, aFilename);
+            int theFoundDocument = -1;
+            for (LeafReaderContext theContext : theReader.leaves()) {
+                DocsEnum theDocs = theContext.reader().termDocsEnum(theTerm);
+                if (theDocs != null) {
+                    int theDocument;
+                    while ((theDocument = theDocs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                        if (theFoundDocument >= 0) {
+                            // Multiple documents in index, we need to clean up
+                            return UpdateCheckResult.UPDATED;
+                        }
+                        theFoundDocument = theContext.docBase + theDocument;
+                    }
+                }
             }
-            if (theDocs.scoreDocs.length > 1) {
-                // Multiple documents in index, we need to clean up
+            if (theFoundDocument < 0) {
                 return UpdateCheckResult.UPDATED;
             }
-            ScoreDoc theFirstScore = theDocs.scoreDocs[0];
-            Document theDocument = theSearcher.doc(theFirstScore.doc);
 
-            long theStoredLastModified = theDocument.getField(IndexFields.LASTMODIFIED).numericValue().longValue();
-            if (theStoredLastModified != aLastModified) {
+            DocumentColumns theColumns = new DocumentColumns(theReader);
+            if (theColumns.getSchemaVersion(theFoundDocument) != schema.getVersion()) {
+                return UpdateCheckResult.UPDATED;
+            }
+            if (theColumns.getLastModified(theFoundDocument) != aLastModified) {
                 return UpdateCheckResult.UPDATED;
             }
             return UpdateCheckResult.UNMODIFIED;
@@ -271,6 +235,113 @@ class LuceneIndexHandler {
         }
     }
 
+    public List<String> getFileNamesBelow(String aDirectory) throws IOException {
+        searcherManager.maybeRefreshBlocking();
+        IndexSearcher theSearcher = searcherManager.acquire();
+        try {
+            List<Integer> theDocuments = new ArrayList<>();
+            theSearcher.search(new PrefixQuery(new Term(IndexFields.FILENAME, aDirectory + File.separator)), new SimpleCollector() {
+
+                private int docBase;
+
+                @Override
+                protected void doSetNextReader(LeafReaderContext aContext) {
+                    docBase = aContext.docBase;
+                }
+
+                @Override
+                public void collect(int aDocument) {
+                    theDocuments.add(docBase + aDocument);
+                }
+            });
+
+            DocumentColumns theColumns = new DocumentColumns(theSearcher.getIndexReader());
+            List<String> theResult = new ArrayList<>(theDocuments.size());
+            for (Integer theDocument : theDocuments) {
+                String theFileName = theColumns.getFileName(theDocument);
+                if (theFileName != null) {
+                    theResult.add(theFileName);
+                }
+            }
+            return theResult;
+        } finally {
+            searcherManager.release(theSearcher);
+        }
+    }
+
+    public IndexSnapshot createSnapshot() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+        IndexSearcher theSearcher = searcherManager.acquire();
+        try {
+            IndexReader theIndexReader = theSearcher.getIndexReader();
+            DocumentColumns theColumns = new DocumentColumns(theIndexReader);
+            IndexSnapshot.Builder theBuilder = new IndexSnapshot.Builder();
+            int theOutdatedDocuments = 0;
+            for (LeafReaderContext theContext : theIndexReader.leaves()) {
+                LeafReader theReader = theContext.reader();
+                Bits theLiveDocs = theReader.getLiveDocs();
+                for (int i = 0; i < theReader.maxDoc(); i++) {
+                    if (theLiveDocs == null || theLiveDocs.get(i)) {
+                        int theDocumentID = theContext.docBase + i;
+                        String theFileName = theColumns.getFileName(theDocumentID);
+                        if (theFileName == null) {
+                            continue;
+                        }
+                        if (theColumns.getSchemaVersion(theDocumentID) != schema.getVersion()) {
+                            theOutdatedDocuments++;
+                            theBuilder.add(theFileName, IndexSnapshot.FORCE_UPDATE);
+                        } else {
+                            theBuilder.add(theFileName, theColumns.getLastModified(theDocumentID));
+                        }
+                    }
+                }
+            }
+            if (theOutdatedDocuments > 0) {
+                LOGGER.info(theOutdatedDocuments + " documents were written with an older index schema and will be reindexed");
+            }
+            return theBuilder.build();
+        } finally {
+            searcherManager.release(theSearcher);
+        }
+    }
+
+    /**
+     * Rewrites the documents written with another schema from what they have in the index, so they are not
+     * extracted again by the next crawl.
+     */
+    public int migrateSchema() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+        IndexSearcher theSearcher = searcherManager.acquire();
+        try {
+            long theStartTime = System.currentTimeMillis();
+            IndexReader theIndexReader = theSearcher.getIndexReader();
+            DocumentColumns theColumns = new DocumentColumns(theIndexReader);
+            DocumentBuilder theBuilder = documentBuilder.get();
+            int theMigratedDocuments = 0;
+            for (LeafReaderContext theContext : theIndexReader.leaves()) {
+                LeafReader theReader = theContext.reader();
+                Bits theLiveDocs = theReader.getLiveDocs();
+                for (int i = 0; i < theReader.maxDoc(); i++) {
+                    if (theLiveDocs == null || theLiveDocs.get(i)) {
+                        long theVersion = theColumns.getSchemaVersion(theContext.docBase + i);
+                        if (theVersion != schema.getVersion() && schema.isMigratable(theVersion)) {
+                            Document theDocument = theBuilder.rebuild(theReader, i);
+                            writeDocument(theDocument.get(IndexFields.FILENAME), theDocument);
+                            theMigratedDocuments++;
+                        }
+                    }
+                }
+            }
+            if (theMigratedDocuments > 0) {
+                LOGGER.info("Migrated " + theMigratedDocuments + " documents to index schema " + schema.getVersion() + " in "
+                        + (System.currentTimeMillis() - theStartTime) + "ms");
+            }
+            return theMigratedDocuments;
+        } finally {
+            searcherManager.release(theSearcher);
+        }
+    }
+
     private String encode(String aValue) {
         URLCodec theURLCodec = new URLCodec();
         try {
@@ -280,13 +351,18 @@ class LuceneIndexHandler {
         }
     }
 
-    private BooleanQuery computeBooleanQueryFor(String aQueryString) throws IOException {
+    private BooleanQuery computeBooleanQueryFor(String aQueryString, IndexReader aReader) throws IOException {
         QueryParser theParser = new QueryParser(analyzer);
 
         BooleanQuery theBooleanQuery = new BooleanQuery();
         theBooleanQuery.setMinimumNumberShouldMatch(1);
 
-        for (String theFieldName : analyzerCache.getAllFieldNames()) {
+        // Only fields with documents in their language and all required terms can match
+        for (String theFieldName : populatedFieldsCache.getPopulatedFields(aReader)) {
+            if (!theParser.mayMatch(aQueryString, theFieldName, aReader)) {
+                populatedFieldsCache.fieldSkipped();
+                continue;
+            }
             Query theSingle = theParser.parse(aQueryString, theFieldName);
             theBooleanQuery.add(theSingle, BooleanClause.Occur.SHOULD);
         }
@@ -295,19 +371,29 @@ class LuceneIndexHandler {
 
     public QueryResult performQuery(String aQueryString, String aBacklink, String aBasePath, Configuration aConfiguration, Map<String, Object> aDrilldownFields) throws IOException {
 
-        searcherManager.maybeRefreshBlocking();
         IndexSearcher theSearcher = searcherManager.acquire();
-        SortedSetDocValuesReaderState theSortedSetState = new DefaultSortedSetDocValuesReaderState(theSearcher.getIndexReader());
-
-        List<QueryResultDocument> theResultDocuments = new ArrayList<>();
 
         long theStartTime = System.currentTimeMillis();
 
-        LOGGER.info("Querying for "+aQueryString);
+        // Everything using the searcher is inside the try, so the searcher is always released
+        try {
+
+            // Results are only reused for the same searcher, as the documents ids are part of it
+            QueryResultCache.Key theCacheKey = new QueryResultCache.Key(aQueryString, aDrilldownFields, aBacklink, aBasePath, aConfiguration);
+            QueryResult theCachedResult = queryResultCache.get(theSearcher.getIndexReader(), theCacheKey);
+            if (theCachedResult != null) {
+                LOGGER.debug("Found cached result for " + aQueryString + ", " + queryResultCache);
+                return new QueryResult(System.currentTimeMillis() - theStartTime, theCachedResult.getDocuments(),
+                        theCachedResult.getFacetDimensions(), theCachedResult.getTotalDocuments(), theCachedResult.getBackLink());
+            }
+
+            SortedSetDocValuesReaderState theSortedSetState = facetStateCache.getState(theSearcher.getIndexReader());
 
-        DateFormat theDateFormat = new SimpleDateFormat("dd.MMMM.yyyy", Locale.ENGLISH);
+            List<QueryResultDocument> theResultDocuments = new ArrayList<>();
 
-        try {
+            LOGGER.info("Querying for "+aQueryString);
+
+            DateFormat theDateFormat = new SimpleDateFormat("dd.MMMM.yyyy", Locale.ENGLISH);
 
             List<FacetDimension> theDimensions = new ArrayList<>();
 
@@ -316,7 +402,7 @@ class LuceneIndexHandler {
             if (StringUtils.isEmpty(aQueryString)) {
                 theQuery = new MatchAllDocsQuery();
             } else {
-                theQuery = computeBooleanQueryFor(aQueryString);
+                theQuery = computeBooleanQueryFor(aQueryString, theSearcher.getIndexReader());
             }
 
                 LOGGER.info(" query is " + theQuery);
@@ -354,19 +440,28 @@ class LuceneIndexHandler {
 
                 Map<String, QueryResultDocument> theDocumentsByHash = new HashMap<>();
 
+                // Only the small stored fields and the content for highlighting are loaded,
+                // everything else comes from doc values
+                Set<String> theStoredFieldsToLoad = new HashSet<>();
+                theStoredFieldsToLoad.add(IndexFields.CONTENTMD5);
+                theStoredFieldsToLoad.add(IndexFields.LANGUAGESTORED);
+                theStoredFieldsToLoad.addAll(Arrays.asList(analyzerCache.getAllFieldNames()));
+                DocumentColumns theColumns = new DocumentColumns(theSearcher.getIndexReader());
+
                 for (int i = 0; i < theDocs.scoreDocs.length; i++) {
                     int theDocumentID = theDocs.scoreDocs[i].doc;
                     theUniqueDocumentsFound.add(theDocumentID);
-                    Document theDocument = theSearcher.doc(theDocumentID);
+                    Document theDocument = theSearcher.doc(theDocumentID, theStoredFieldsToLoad);
 
-                    String theUniqueID = theDocument.getField(IndexFields.UNIQUEID).stringValue();
-                    String theFoundFileName = theDocument.getField(IndexFields.FILENAME).stringValue();
+                    String theUniqueID = theColumns.getUniqueID(theDocumentID);
+                    String theFoundFileName = theColumns.getFileName(theDocumentID);
                     String theHash = theDocument.getField(IndexFields.CONTENTMD5).stringValue();
                     QueryResultDocument theExistingDocument = theDocumentsByHash.get(theHash);
                     if (theExistingDocument != null) {
                         theExistingDocument.addFileName(theFoundFileName);
                     } else {
-                        Date theLastModified = new Date(theDocument.getField(IndexFields.LASTMODIFIED).numericValue().longValue());
+                        long theLastModifiedTime = theColumns.getLastModified(theDocumentID);
+                        Date theLastModified = new Date(theLastModifiedTime);
                         SupportedLanguage theLanguage = SupportedLanguage.valueOf(theDocument.getField(IndexFields.LANGUAGESTORED).stringValue());
                         String theFieldName;
                         if (analyzerCache.supportsLanguage(theLanguage)) {
@@ -375,19 +470,29 @@ class LuceneIndexHandler {
                             theFieldName = IndexFields.CONTENT;
                         }
 
-                        String theOriginalContent = theDocument.getField(theFieldName).stringValue();
+                        // Metadata is stored as a further value of the content field
+                        String[] theOriginalContent = theDocument.getValues(theFieldName);
 
                         final Query theFinalQuery = theQuery;
 
                         ForkJoinTask<String> theHighligherResult = executorPool.submit(() -> {
                             StringBuilder theResult = new StringBuilder(theDateFormat.format(theLastModified));
                             theResult.append("&nbsp;-&nbsp;");
-                            Highlighter theHighlighter = new Highlighter(new SimpleHTMLFormatter(), new QueryScorer(theFinalQuery));
-                            for (String theFragment : theHighlighter.getBestFragments(analyzer, theFieldName, theOriginalContent, NUMBER_OF_FRAGMENTS)) {
+                            Highlighter theHighlighter = new Highlighter(new SimpleHTMLFormatter(), newQueryScorer(theFinalQuery));
+                            List<TextFragment> theFragments = new ArrayList<>();
+                            for (String theValue : theOriginalContent) {
+                                for (TextFragment theFragment : theHighlighter.getBestTextFragments(analyzer.tokenStream(theFieldName, theValue), theValue, true, NUMBER_OF_FRAGMENTS)) {
+                                    if (theFragment != null && theFragment.getScore() > 0) {
+                                        theFragments.add(theFragment);
+                                    }
+                                }
+                            }
+                            theFragments.sort((o1, o2) -> Float.compare(o2.getScore(), o1.getScore()));
+                            for (TextFragment theFragment : theFragments.subList(0, Math.min(NUMBER_OF_FRAGMENTS, theFragments.size()))) {
                                 if (theResult.length() > 0) {
                                     theResult = theResult.append("...");
                                 }
-                                theResult = theResult.append(theFragment);
+                                theResult = theResult.append(theFragment.toString());
                             }
                             return theResult.toString();
                         });
@@ -400,7 +505,7 @@ class LuceneIndexHandler {
                             boolean thePreviewAvailable = previewProcessor.previewAvailableFor(theFileOnDisk);
 
                             theExistingDocument = new QueryResultDocument(theDocumentID, theFoundFileName, theHighligherResult,
-                                    Long.parseLong(theDocument.getField(IndexFields.LASTMODIFIED).stringValue()),
+                                    theLastModifiedTime,
                                     theNormalizedScore, theUniqueID, thePreviewAvailable);
                             // content should not be empty as we have at least some metadata
                             LOGGER.assertLog(0 != theHash.compareTo("d41d8cd98f00b204e9800998ecf8427e"), "Empty content according to CONTENTMD5 field");
@@ -424,8 +529,7 @@ class LuceneIndexHandler {
                         for (ScoreDoc theMoreLikeThisScoreDoc : theMoreLikeThisTopDocs.scoreDocs) {
                             int theSimilarDocument = theMoreLikeThisScoreDoc.doc;
                             if (theUniqueDocumentsFound.add(theSimilarDocument)) {
-                                Document theMoreLikeThisDocument = theSearcher.doc(theSimilarDocument);
-                                String theFilename = theMoreLikeThisDocument.getField(IndexFields.FILENAME).stringValue();
+                                String theFilename = theColumns.getFileName(theSimilarDocument);
                                 theDocument.addSimilarFile(theFilename);
                             }
                         }
@@ -516,8 +620,13 @@ class LuceneIndexHandler {
             long theDuration = System.currentTimeMillis() - theStartTime;
 
             LOGGER.info("Total amount of time : "+theDuration+"ms");
+            LOGGER.debug(facetStateCache);
+            LOGGER.debug(populatedFieldsCache);
 
-            return new QueryResult(System.currentTimeMillis() - theStartTime, theResultDocuments, theDimensions, theSearcher.getIndexReader().numDocs(), aBacklink);
+            QueryResult theResult = new QueryResult(System.currentTimeMillis() - theStartTime, theResultDocuments, theDimensions, theSearcher.getIndexReader().numDocs(), aBacklink);
+            queryResultCache.put(theSearcher.getIndexReader(), theCacheKey, theResult);
+            LOGGER.debug(queryResultCache);
+            return theResult;
         } catch (Exception e) {
             throw new RuntimeException(e);
         } finally {
@@ -525,9 +634,25 @@ class LuceneIndexHandler {
         }
     }
 
+    private static QueryScorer newQueryScorer(Query aQuery) {
+        return new QueryScorer(aQuery) {
+            @Override
+            protected WeightedSpanTermExtractor newTermExtractor(String aDefaultField) {
+                return new WeightedSpanTermExtractor(aDefaultField) {
+                    @Override
+                    protected void extractUnknownQuery(Query aQuery, Map<String, WeightedSpanTerm> aTerms) throws IOException {
+                        // The terms of a proximity query are highlighted like those of term queries
+                        if (aQuery instanceof ProximityQuery) {
+                            extractWeightedTerms(aTerms, aQuery);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
     public Suggestion[] findSuggestionTermsFor(String aTerm) throws IOException {
 
-        searcherManager.maybeRefreshBlocking();
         IndexSearcher theSearcher = searcherManager.acquire();
 
         try {
@@ -543,16 +668,15 @@ class LuceneIndexHandler {
     }
 
     public File getFileOnDiskForDocument(String aUniqueID) throws IOException {
-        searcherManager.maybeRefreshBlocking();
         IndexSearcher theSearcher = searcherManager.acquire();
 
         try {
             TermQuery theTermQuery = new TermQuery(new Term(IndexFields.UNIQUEID, aUniqueID));
             TopDocs theTopDocs = theSearcher.search(theTermQuery, null, 1);
             if (theTopDocs.totalHits == 1) {
-                Document theDocument = theSearcher.doc(theTopDocs.scoreDocs[0].doc);
-                if (theDocument != null) {
-                    return new File(theDocument.get(IndexFields.FILENAME));
+                String theFileName = new DocumentColumns(theSearcher.getIndexReader()).getFileName(theTopDocs.scoreDocs[0].doc);
+                if (theFileName != null) {
+                    return new File(theFileName);
                 }
             }
             return null;
@@ -566,18 +690,83 @@ class LuceneIndexHandler {
         IndexSearcher theSearcher = searcherManager.acquire();
 
         try {
+            long theStartTime = System.currentTimeMillis();
             IndexReader theReader = theSearcher.getIndexReader();
-            for (int i = 0; i < theReader.maxDoc(); i++) {
-                Document theDocument = theReader.document(i);
-                File theFile = new File(theDocument.getField(IndexFields.FILENAME).stringValue());
-                if (!theFile.exists()) {
-                    LOGGER.info("Removing file "+theFile+" from index as it does not exist anymore.");
-                    String theUniqueID = theDocument.getField(IndexFields.UNIQUEID).stringValue();
-                    indexWriter.deleteDocuments(new Term(IndexFields.UNIQUEID, theUniqueID));
-                }
+
+            // Every segment is checked in parallel
+            List<ForkJoinTask<Integer>> theTasks = new ArrayList<>();
+            for (LeafReaderContext theContext : theReader.leaves()) {
+                theTasks.add(executorPool.submit(() -> cleanupDeadContent(theReader, theContext)));
+            }
+            int theRemovedFiles = 0;
+            for (ForkJoinTask<Integer> theTask : theTasks) {
+                theRemovedFiles += theTask.join();
             }
+
+            LOGGER.info("Removed " + theRemovedFiles + " dead files from index in " + (System.currentTimeMillis() - theStartTime) + "ms");
         } finally {
             searcherManager.release(theSearcher);
         }
     }
+
+    private int cleanupDeadContent(IndexReader aReader, LeafReaderContext aContext) throws IOException {
+        LeafReader theReader = aContext.reader();
+        Bits theLiveDocs = theReader.getLiveDocs();
+        DocumentColumns theColumns = new DocumentColumns(aReader);
+
+        Map<String, List<String>> theFilesByDirectory = new HashMap<>();
+        for (int i = 0; i < theReader.maxDoc(); i++) {
+            if (theLiveDocs == null || theLiveDocs.get(i)) {
+                String theFileName = theColumns.getFileName(aContext.docBase + i);
+                if (theFileName != null) {
+                    String theDirectory = new File(theFileName).getParent();
+                    theFilesByDirectory.computeIfAbsent(theDirectory, aKey -> new ArrayList<>()).add(theFileName);
+                }
+            }
+        }
+
+        List<Term> theDeadFiles = theFilesByDirectory.entrySet().parallelStream()
+                .flatMap(aEntry -> findDeadFiles(aEntry.getKey(), aEntry.getValue()).stream())
+                .map(aFileName -> new Term(IndexFields.FILENAME, aFileName))
+                .collect(Collectors.toList());
+
+        if (!theDeadFiles.isEmpty()) {
+            trackingIndexWriter.deleteDocuments(theDeadFiles.toArray(new Term[theDeadFiles.size()]));
+        }
+        return theDeadFiles.size();
+    }
+
+    private static List<String> findDeadFiles(String aDirectory, List<String> aFileNames) {
+        List<String> theResult = new ArrayList<>();
+        if (aDirectory == null || aFileNames.size() <= 2) {
+            // Not worth a directory listing
+            for (String theFileName : aFileNames) {
+                if (!new File(theFileName).exists()) {
+                    LOGGER.info("Removing file " + theFileName + " from index as it does not exist anymore.");
+                    theResult.add(theFileName);
+                }
+            }
+            return theResult;
+        }
+
+        File theDirectory = new File(aDirectory);
+        String[] theEntries = theDirectory.list();
+        if (theEntries == null) {
+            if (theDirectory.exists()) {
+                LOGGER.warn("Cannot list " + aDirectory + ", skipping dead content detection");
+                return theResult;
+            }
+            LOGGER.info("Removing all files in " + aDirectory + " from index as the directory does not exist anymore.");
+            return aFileNames;
+        }
+
+        Set<String> theExistingNames = new HashSet<>(Arrays.asList(theEntries));
+        for (String theFileName : aFileNames) {
+            if (!theExistingNames.contains(new File(theFileName).getName())) {
+                LOGGER.info("Removing file " + theFileName + " from index as it does not exist anymore.");
+                theResult.add(theFileName);
+            }
+        }
+        return theResult;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the metadata names reported by Tika to index names and recognizes date values. Names are harmonized once and
+ * then looked up, dates are only parsed if the value has the shape of one of the known formats.
+ */
+class MetadataNormalizer {
+
+    private static final int MAX_CACHED_NAMES = 4096;
+
+    private static final String KEYWORDS = "Windows XP Keywords";
+    private static final Pattern KEYWORD_SEPARATOR = Pattern.compile(";|,");
+
+    private static final DateTimeFormatter TEXT_FORMAT = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy");
+
+    private final Map<String, String> replacements;
+    private final Map<String, String> nameMapping;
+
+    public MetadataNormalizer(Configuration aConfiguration) {
+        replacements = aConfiguration.getMetaDataNameReplacement();
+        nameMapping = new ConcurrentHashMap<>();
+    }
+
+    public String normalizeName(String aName) {
+        String theResult = nameMapping.get(aName);
+        if (theResult == null) {
+            theResult = harmonize(aName);
+            // Custom document properties might produce arbitrary names, so the table is bounded
+            if (nameMapping.size() < MAX_CACHED_NAMES) {
+                nameMapping.put(aName, theResult);
+            }
+        }
+        return theResult;
+    }
+
+    private String harmonize(String aName) {
+        String theName = aName.toLowerCase();
+        int p = theName.indexOf(":");
+        if (p > 0) {
+            theName = theName.substring(p + 1);
+        }
+
+        String theReplacement = replacements.get(theName);
+        if (theReplacement != null) {
+            return theReplacement;
+        }
+
+        return theName.replace(" ", "-");
+    }
+
+    public boolean isKeywordList(String aName) {
+        return KEYWORDS.equals(aName);
+    }
+
+    public String[] splitKeywords(String aValue) {
+        return KEYWORD_SEPARATOR.split(aValue);
+    }
+
+    public ZonedDateTime parseDate(String aValue) {
+        int theLength = aValue.length();
+        if (theLength == 19 && hasShape(aValue, ':', ':', ' ')) {
+            // Date/Time in jpegs, yyyy:MM:dd HH:mm:ss
+            LocalDateTime theLocal = parseDigits(aValue);
+            return theLocal != null ? ZonedDateTime.of(theLocal, ZoneId.systemDefault()) : null;
+        }
+        if (theLength >= 16 && hasShape(aValue, '-', '-', 'T')) {
+            // ISO local date time with optional seconds and fraction
+            try {
+                return ZonedDateTime.of(LocalDateTime.parse(aValue), ZoneId.systemDefault());
+            } catch (DateTimeException e) {
+                return null;
+            }
+        }
+        if (theLength >= 24 && aValue.charAt(3) == ' ' && aValue.charAt(7) == ' ' && aValue.charAt(10) == ' '
+                && aValue.charAt(13) == ':' && aValue.charAt(16) == ':' && aValue.charAt(19) == ' ') {
+            // Date.toString() format, EEE MMM dd HH:mm:ss zzz yyyy
+            try {
+                return ZonedDateTime.parse(aValue, TEXT_FORMAT);
+            } catch (DateTimeException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasShape(String aValue, char aDateSeparator1, char aDateSeparator2, char aTimeSeparator) {
+        return aValue.charAt(4) == aDateSeparator1 && aValue.charAt(7) == aDateSeparator2
+                && aValue.charAt(10) == aTimeSeparator && aValue.charAt(13) == ':'
+                && isDigits(aValue, 0, 4) && isDigits(aValue, 5, 7) && isDigits(aValue, 8, 10)
+                && isDigits(aValue, 11, 13) && isDigits(aValue, 14, 16);
+    }
+
+    private static boolean isDigits(String aValue, int aStart, int aEnd) {
+        for (int i = aStart; i < aEnd; i++) {
+            char c = aValue.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int number(String aValue, int aStart, int aEnd) {
+        int theResult = 0;
+        for (int i = aStart; i < aEnd; i++) {
+            theResult = theResult * 10 + aValue.charAt(i) - '0';
+        }
+        return theResult;
+    }
+
+    private static LocalDateTime parseDigits(String aValue) {
+        if (aValue.charAt(16) != ':' || !isDigits(aValue, 17, 19)) {
+            return null;
+        }
+        int theMonth = number(aValue, 5, 7);
+        int theDay = number(aValue, 8, 10);
+        int theHour = number(aValue, 11, 13);
+        int theMinute = number(aValue, 14, 16);
+        int theSecond = number(aValue, 17, 19);
+        // Cameras without a clock write 0000:00:00 00:00:00
+        if (theMonth < 1 || theMonth > 12 || theDay < 1 || theDay > 31 || theHour > 23 || theMinute > 59 || theSecond > 59) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(number(aValue, 0, 4), theMonth, theDay, theHour, theMinute, theSecond);
+        } catch (DateTimeException e) {
+            // Day does not exist in this month
+            return null;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.facet.FacetsConfig;
+
+/**
+ * All facet dimensions are metadata names, and every one of them may have multiple values. The configuration is
+ * therefore the same for every dimension and never changes, so no lookup or lock is needed.
+ */
+class MultiValuedFacetsConfig extends FacetsConfig {
+
+    private static final DimConfig MULTI_VALUED;
+
+    static {
+        MULTI_VALUED = new DimConfig();
+        MULTI_VALUED.multiValued = true;
+    }
+
+    @Override
+    public DimConfig getDimConfig(String aDimension) {
+        return MULTI_VALUED;
+    }
+}
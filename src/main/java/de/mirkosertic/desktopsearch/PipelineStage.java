@@ -0,0 +1,95 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+class PipelineStage<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(PipelineStage.class);
+
+    private final String name;
+    private final ExecutorService executorService;
+    private final Semaphore capacity;
+    private final AtomicInteger queueDepth;
+    private final AtomicLong processedCount;
+    private final Consumer<T> handler;
+    private volatile long statisticsStartTime;
+
+    public PipelineStage(String aName, int aNumberOfThreads, int aQueueCapacity, Consumer<T> aHandler) {
+        name = aName;
+        handler = aHandler;
+        // A permit is needed for every queued or running item, so submit blocks
+        // as soon as the stage is saturated. This is our backpressure
+        capacity = new Semaphore(aNumberOfThreads + aQueueCapacity);
+        queueDepth = new AtomicInteger();
+        processedCount = new AtomicLong();
+        statisticsStartTime = System.currentTimeMillis();
+
+        AtomicInteger theThreadCounter = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(aNumberOfThreads, aRunnable -> {
+            Thread theThread = new Thread(aRunnable, aName + "-" + theThreadCounter.incrementAndGet());
+            theThread.setDaemon(true);
+            return theThread;
+        });
+    }
+
+    public void submit(T aItem) throws InterruptedException {
+        capacity.acquire();
+        queueDepth.incrementAndGet();
+        executorService.execute(() -> {
+            queueDepth.decrementAndGet();
+            try {
+                handler.accept(aItem);
+            } catch (Exception e) {
+                LOGGER.error("Error processing " + aItem + " in stage " + name, e);
+            } finally {
+                processedCount.incrementAndGet();
+                capacity.release();
+            }
+        });
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public double getThroughput() {
+        long theDuration = System.currentTimeMillis() - statisticsStartTime;
+        if (theDuration <= 0) {
+            return 0;
+        }
+        return processedCount.get() * 1000d / theDuration;
+    }
+
+    public void resetStatistics() {
+        processedCount.set(0);
+        statisticsStartTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : %d processed, %.1f/s, queue depth %d", name, getProcessedCount(), getThroughput(), getQueueDepth());
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Knows the number of documents per content field of the current searcher. Every document has its content in the
+ * field of its language only, so queries are routed to the fields that are populated.
+ */
+class PopulatedFieldsCache extends ReaderCache<PopulatedFieldsCache.Fields> {
+
+    static class Fields {
+
+        private final Map<String, Integer> documentCounts;
+        private final String[] populatedFields;
+
+        Fields(Map<String, Integer> aDocumentCounts, String[] aPopulatedFields) {
+            documentCounts = aDocumentCounts;
+            populatedFields = aPopulatedFields;
+        }
+    }
+
+    private final String[] fieldNames;
+
+    private long routedQueries;
+    private long skippedFields;
+
+    public PopulatedFieldsCache(String[] aFieldNames) {
+        fieldNames = aFieldNames;
+    }
+
+    public synchronized String[] getPopulatedFields(IndexReader aReader) throws IOException {
+        String[] thePopulatedFields = get(aReader).populatedFields;
+        routedQueries++;
+        skippedFields += fieldNames.length - thePopulatedFields.length;
+        return thePopulatedFields;
+    }
+
+    @Override
+    protected Fields load(IndexReader aReader) throws IOException {
+        Map<String, Integer> theDocumentCounts = new LinkedHashMap<>();
+        List<String> thePopulatedFields = new ArrayList<>();
+        for (String theFieldName : fieldNames) {
+            Terms theTerms = MultiFields.getTerms(aReader, theFieldName);
+            int theCount = theTerms != null ? theTerms.getDocCount() : 0;
+            theDocumentCounts.put(theFieldName, theCount);
+            // A codec without the statistics reports -1, so the field has to be queried
+            if (theCount != 0) {
+                thePopulatedFields.add(theFieldName);
+            }
+        }
+        return new Fields(theDocumentCounts, thePopulatedFields.toArray(new String[thePopulatedFields.size()]));
+    }
+
+    /**
+     * @return the document counts of the current searcher, or null if no query was routed since it was opened
+     */
+    public synchronized Map<String, Integer> getDocumentCounts() {
+        Fields theFields = current();
+        return theFields != null ? theFields.documentCounts : null;
+    }
+
+    public synchronized void fieldSkipped() {
+        skippedFields++;
+    }
+
+    public synchronized long getSkippedFieldCount() {
+        return skippedFields;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PopulatedFieldsCache{routedQueries=" + routedQueries + ", skippedFields=" + skippedFields + ", documentCounts="
+                + getDocumentCounts() + '}';
+    }
+}
@@ -0,0 +1,407 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.ComplexExplanation;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.ToStringUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Matches documents containing all of the distinct terms and scores their proximity in a single pass over the
+ * positions. This replaces a boolean query of the exact SpanNearQuery, the ladder of unordered ones with a slop
+ * of 0 to 9 and one required TermQuery per term. Every window found is counted for all rungs its slop fits into,
+ * so a document gets the same sum of rung and term scores as with that boolean query. Its coordination factor
+ * is applied as well, which counts the matching rungs and the terms out of all eleven rungs and the terms.
+ */
+class ProximityQuery extends Query {
+
+    // This is the original span, so we boost it a lot
+    static final int EXACT_MATCH_BOOST = 61;
+
+    // We expect a maximum edit distance of 10 between the searched terms in any order
+    // This seems to be the most useful value
+    static final int MAX_EDIT_DISTANCE = 10;
+
+    // Sum of the squared boosts of all rungs, so the query norm is the same as with the span queries
+    private static final float BOOST_NORMALIZATION;
+
+    static {
+        float theSum = EXACT_MATCH_BOOST * EXACT_MATCH_BOOST;
+        for (int theSlop = 0; theSlop < MAX_EDIT_DISTANCE; theSlop++) {
+            theSum += slopBoost(theSlop) * slopBoost(theSlop);
+        }
+        BOOST_NORMALIZATION = theSum;
+    }
+
+    static int slopBoost(int aSlop) {
+        return 50 + MAX_EDIT_DISTANCE - aSlop;
+    }
+
+    private final String field;
+    private final Term[] terms;
+
+    public ProximityQuery(String aField, String... aTerms) {
+        if (aTerms.length == 0) {
+            throw new IllegalArgumentException("At least one term is required");
+        }
+        if (Arrays.stream(aTerms).distinct().count() != aTerms.length) {
+            throw new IllegalArgumentException("Terms must be distinct : " + Arrays.toString(aTerms));
+        }
+        field = aField;
+        terms = new Term[aTerms.length];
+        for (int i = 0; i < aTerms.length; i++) {
+            terms[i] = new Term(aField, aTerms[i]);
+        }
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher aSearcher) throws IOException {
+        return new ProximityWeight(aSearcher);
+    }
+
+    @Override
+    public void extractTerms(Set<Term> aTerms) {
+        aTerms.addAll(Arrays.asList(terms));
+    }
+
+    @Override
+    public String toString(String aField) {
+        StringBuilder theResult = new StringBuilder("proximity(");
+        if (!field.equals(aField)) {
+            theResult.append(field).append(":");
+        }
+        theResult.append("\"");
+        for (int i = 0; i < terms.length; i++) {
+            if (i > 0) {
+                theResult.append(" ");
+            }
+            theResult.append(terms[i].text());
+        }
+        theResult.append("\")");
+        theResult.append(ToStringUtils.boost(getBoost()));
+        return theResult.toString();
+    }
+
+    @Override
+    public boolean equals(Object aOther) {
+        if (!super.equals(aOther)) {
+            return false;
+        }
+        ProximityQuery theOther = (ProximityQuery) aOther;
+        return field.equals(theOther.field) && Arrays.equals(terms, theOther.terms);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * super.hashCode() + field.hashCode()) + Arrays.hashCode(terms);
+    }
+
+    private class ProximityWeight extends Weight {
+
+        private final Similarity similarity;
+        private final Similarity.SimWeight stats;
+        private final Similarity.SimWeight[] termStats;
+        private final TermContext[] states;
+
+        ProximityWeight(IndexSearcher aSearcher) throws IOException {
+            similarity = aSearcher.getSimilarity();
+            IndexReaderContext theContext = aSearcher.getTopReaderContext();
+            states = new TermContext[terms.length];
+            TermStatistics[] theTermStatistics = new TermStatistics[terms.length];
+            CollectionStatistics theCollectionStatistics = aSearcher.collectionStatistics(field);
+            termStats = new Similarity.SimWeight[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                states[i] = TermContext.build(theContext, terms[i]);
+                theTermStatistics[i] = aSearcher.termStatistics(terms[i], states[i]);
+                termStats[i] = similarity.computeWeight(getBoost(), theCollectionStatistics, theTermStatistics[i]);
+            }
+            stats = similarity.computeWeight(getBoost(), theCollectionStatistics, theTermStatistics);
+        }
+
+        @Override
+        public Query getQuery() {
+            return ProximityQuery.this;
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException {
+            float theSum = stats.getValueForNormalization() * BOOST_NORMALIZATION;
+            for (Similarity.SimWeight theTermStats : termStats) {
+                theSum += theTermStats.getValueForNormalization();
+            }
+            return theSum;
+        }
+
+        @Override
+        public void normalize(float aNorm, float aTopLevelBoost) {
+            stats.normalize(aNorm, aTopLevelBoost);
+            for (Similarity.SimWeight theTermStats : termStats) {
+                theTermStats.normalize(aNorm, aTopLevelBoost);
+            }
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext aContext, Bits aAcceptDocs) throws IOException {
+            Terms theTerms = aContext.reader().terms(field);
+            if (theTerms == null) {
+                return null;
+            }
+            TermsEnum theTermsEnum = theTerms.iterator(null);
+            DocsAndPositionsEnum[] thePostings = new DocsAndPositionsEnum[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                TermState theState = states[i].get(aContext.ord);
+                if (theState == null) {
+                    // A term is missing in this segment, so nothing can match
+                    return null;
+                }
+                theTermsEnum.seekExact(terms[i].bytes(), theState);
+                thePostings[i] = theTermsEnum.docsAndPositions(aAcceptDocs, null, DocsEnum.FLAG_NONE);
+                if (thePostings[i] == null) {
+                    throw new IllegalStateException("Field " + field + " was indexed without position data");
+                }
+            }
+            Similarity.SimScorer[] theTermScorers = new Similarity.SimScorer[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                theTermScorers[i] = similarity.simScorer(termStats[i], aContext);
+            }
+            // Indexed by the matching rungs, the required terms always match
+            float[] theCoordinationFactors = new float[MAX_EDIT_DISTANCE + 2];
+            for (int i = 0; i < theCoordinationFactors.length; i++) {
+                theCoordinationFactors[i] = similarity.coord(i + terms.length, MAX_EDIT_DISTANCE + 1 + terms.length);
+            }
+            return new ProximityScorer(this, thePostings, similarity.simScorer(stats, aContext), theTermScorers, theCoordinationFactors);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext aContext, int aDocument) throws IOException {
+            ProximityScorer theScorer = (ProximityScorer) scorer(aContext, aContext.reader().getLiveDocs());
+            if (theScorer != null && theScorer.advance(aDocument) == aDocument) {
+                ComplexExplanation theResult = new ComplexExplanation(true, theScorer.score(), "weight(" + getQuery() + " in " + aDocument
+                        + "), product of:");
+                ComplexExplanation theSum = new ComplexExplanation(true, 0, "sum of:");
+                theResult.addDetail(theSum);
+                if (theScorer.exactFrequency > 0) {
+                    theSum.addDetail(theScorer.explainRung("exact match", EXACT_MATCH_BOOST, theScorer.exactFrequency));
+                }
+                float theFrequency = 0;
+                for (int theSlop = 0; theSlop < MAX_EDIT_DISTANCE; theSlop++) {
+                    theFrequency += theScorer.slopFrequencies[theSlop];
+                    if (theFrequency > 0) {
+                        theSum.addDetail(theScorer.explainRung("slop " + theSlop, slopBoost(theSlop), theFrequency));
+                    }
+                }
+                for (int i = 0; i < terms.length; i++) {
+                    theSum.addDetail(theScorer.explainTerm(i, terms[i]));
+                }
+                float theCoordination = theScorer.coordinationFactors[theScorer.matchingRungs];
+                theSum.setValue(theResult.getValue() / theCoordination);
+                theResult.addDetail(new Explanation(theCoordination, "coord(" + theScorer.matchingRungs + ")"));
+                return theResult;
+            }
+            return new ComplexExplanation(false, 0.0f, "not all terms match");
+        }
+    }
+
+    private static class ProximityScorer extends Scorer {
+
+        private final DocsAndPositionsEnum[] postings;
+        private final DocsAndPositionsEnum[] byCost;
+        private final Similarity.SimScorer docScorer;
+        private final Similarity.SimScorer[] termScorers;
+        private final float[] coordinationFactors;
+        private final int[][] positions;
+        private final int[] positionCounts;
+        private final int[] cursors;
+
+        private int document;
+        private int windows;
+        // The sloppy frequency of the windows by their exact slop, a rung sums up all below it
+        private final float[] slopFrequencies;
+        private float exactFrequency;
+        private int matchingRungs;
+
+        ProximityScorer(Weight aWeight, DocsAndPositionsEnum[] aPostings, Similarity.SimScorer aDocScorer, Similarity.SimScorer[] aTermScorers,
+                float[] aCoordinationFactors) {
+            super(aWeight);
+            postings = aPostings;
+            docScorer = aDocScorer;
+            termScorers = aTermScorers;
+            coordinationFactors = aCoordinationFactors;
+            byCost = aPostings.clone();
+            // The rarest term leads the conjunction
+            Arrays.sort(byCost, (a, b) -> Long.compare(a.cost(), b.cost()));
+            positions = new int[aPostings.length][8];
+            positionCounts = new int[aPostings.length];
+            cursors = new int[aPostings.length];
+            slopFrequencies = new float[MAX_EDIT_DISTANCE];
+            document = -1;
+        }
+
+        @Override
+        public int docID() {
+            return document;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return advance(document + 1);
+        }
+
+        @Override
+        public int advance(int aTarget) throws IOException {
+            int theCandidate = byCost[0].advance(aTarget);
+            while (theCandidate != NO_MORE_DOCS) {
+                int theNext = theCandidate;
+                for (int i = 1; i < byCost.length && theNext == theCandidate; i++) {
+                    DocsAndPositionsEnum thePosting = byCost[i];
+                    theNext = thePosting.docID() < theCandidate ? thePosting.advance(theCandidate) : thePosting.docID();
+                }
+                if (theNext == theCandidate) {
+                    evaluateWindows();
+                    document = theCandidate;
+                    return document;
+                }
+                if (theNext == NO_MORE_DOCS) {
+                    break;
+                }
+                theCandidate = byCost[0].advance(theNext);
+            }
+            document = NO_MORE_DOCS;
+            return document;
+        }
+
+        /**
+         * Walks all windows containing every term once, always moving the term at the lowest position.
+         */
+        private void evaluateWindows() throws IOException {
+            int theTermCount = postings.length;
+            for (int i = 0; i < theTermCount; i++) {
+                DocsAndPositionsEnum thePosting = postings[i];
+                int theFrequency = thePosting.freq();
+                positions[i] = ArrayUtil.grow(positions[i], theFrequency);
+                for (int j = 0; j < theFrequency; j++) {
+                    positions[i][j] = thePosting.nextPosition();
+                }
+                positionCounts[i] = theFrequency;
+                cursors[i] = 0;
+            }
+
+            windows = 0;
+            Arrays.fill(slopFrequencies, 0);
+            exactFrequency = 0;
+            while (true) {
+                int theLowest = 0;
+                int theStart = Integer.MAX_VALUE;
+                int theEnd = -1;
+                for (int i = 0; i < theTermCount; i++) {
+                    int thePosition = positions[i][cursors[i]];
+                    if (thePosition < theStart) {
+                        theStart = thePosition;
+                        theLowest = i;
+                    }
+                    theEnd = Math.max(theEnd, thePosition);
+                }
+                int theLength = theEnd - theStart + 1;
+                int theSlop = theLength - theTermCount;
+                if (theSlop < MAX_EDIT_DISTANCE) {
+                    windows++;
+                    float theSlopFactor = docScorer.computeSlopFactor(theLength);
+                    slopFrequencies[theSlop] += theSlopFactor;
+                    if (theSlop == 0 && isInQueryOrder(theStart)) {
+                        exactFrequency += theSlopFactor;
+                    }
+                }
+                if (++cursors[theLowest] == positionCounts[theLowest]) {
+                    break;
+                }
+            }
+        }
+
+        private boolean isInQueryOrder(int aStart) {
+            for (int i = 0; i < postings.length; i++) {
+                if (positions[i][cursors[i]] != aStart + i) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return windows;
+        }
+
+        @Override
+        public float score() throws IOException {
+            float theScore = 0;
+            matchingRungs = 0;
+            if (exactFrequency > 0) {
+                theScore += EXACT_MATCH_BOOST * docScorer.score(document, exactFrequency);
+                matchingRungs++;
+            }
+            float theFrequency = 0;
+            for (int theSlop = 0; theSlop < MAX_EDIT_DISTANCE; theSlop++) {
+                theFrequency += slopFrequencies[theSlop];
+                if (theFrequency > 0) {
+                    theScore += slopBoost(theSlop) * docScorer.score(document, theFrequency);
+                    matchingRungs++;
+                }
+            }
+            for (int i = 0; i < termScorers.length; i++) {
+                theScore += termScorers[i].score(document, postings[i].freq());
+            }
+            return theScore * coordinationFactors[matchingRungs];
+        }
+
+        Explanation explainRung(String aName, float aBoost, float aFrequency) {
+            Explanation theResult = new Explanation(aBoost * docScorer.score(document, aFrequency), aName + ", product of:");
+            theResult.addDetail(new Explanation(aBoost, "boost"));
+            theResult.addDetail(docScorer.explain(document, new Explanation(aFrequency, "phraseFreq=" + aFrequency)));
+            return theResult;
+        }
+
+        Explanation explainTerm(int aIndex, Term aTerm) throws IOException {
+            int theFrequency = postings[aIndex].freq();
+            Explanation theResult = new Explanation(termScorers[aIndex].score(document, theFrequency), "term " + aTerm + ", product of:");
+            theResult.addDetail(termScorers[aIndex].explain(document, new Explanation(theFrequency, "termFreq=" + theFrequency)));
+            return theResult;
+        }
+
+        @Override
+        public long cost() {
+            return byCost[0].cost();
+        }
+    }
+}
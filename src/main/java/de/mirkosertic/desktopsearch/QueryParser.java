@@ -19,6 +19,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper;
@@ -66,6 +67,23 @@ class QueryParser {
 
     }
 
+    /**
+     * Checks if the required terms of a query could be found in a field. A field missing one of them cannot match,
+     * so it does not need to be queried at all. Wildcard and fuzzy terms are only known after rewrite.
+     */
+    public boolean mayMatch(String aQuery, String aSearchField, IndexReader aReader) throws IOException {
+        QueryTokenizer theTokenizer = new QueryTokenizer(aQuery);
+        for (String theTerm : theTokenizer.getRequiredTerms()) {
+            if (!QueryUtils.isWildCard(theTerm) && !QueryUtils.isFuzzy(theTerm)) {
+                String theTokenizedTerm = toToken(theTerm, aSearchField);
+                if (!StringUtils.isEmpty(theTokenizedTerm) && aReader.docFreq(new Term(aSearchField, theTokenizedTerm)) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public Query parse(String aQuery, String aSearchField) throws IOException {
 
         QueryTokenizer theTokenizer = new QueryTokenizer(aQuery);
@@ -77,38 +95,49 @@ class QueryParser {
         if (!theTokenizer.getRequiredTerms().isEmpty()) {
 
             List<SpanQuery> theSpans = new ArrayList<>();
+            List<String> theTokenizedTerms = new ArrayList<>();
+            boolean thePlainTermsOnly = true;
             for (String theTerm : theTokenizer.getRequiredTerms()) {
                 if (QueryUtils.isWildCard(theTerm)) {
                     theSpans.add(new SpanMultiTermQueryWrapper<>(new WildcardQuery(new Term(aSearchField, theTerm))));
+                    thePlainTermsOnly = false;
                 } else if (QueryUtils.isFuzzy(theTerm)) {
                     theSpans.add(new SpanMultiTermQueryWrapper<>(new FuzzyQuery(new Term(aSearchField, theTerm))));
+                    thePlainTermsOnly = false;
                 } else {
                     // Ok, we need to check of the token would be removed due to stopwords and so on
                     String theTokenizedTerm = toToken(theTerm, aSearchField);
                     if (!StringUtils.isEmpty(theTokenizedTerm)) {
                         theSpans.add(new SpanTermQuery(new Term(aSearchField, theTokenizedTerm)));
+                        thePlainTermsOnly &= !theTokenizedTerms.contains(theTokenizedTerm);
+                        theTokenizedTerms.add(theTokenizedTerm);
                     }
                 }
             }
 
-            // This is the original span, so we boost it a lot
-            SpanQuery theExactMatchQuery = new SpanNearQuery(theSpans.toArray(new SpanQuery[theSpans.size()]), 0, true);
-            theExactMatchQuery.setBoost(61);
-            theResult.add(theExactMatchQuery, BooleanClause.Occur.SHOULD);
-
-            // We expect a maximum edit distance of 10 between the searched terms in any order
-            // This seems to be the most useful value
-            int theMaxEditDistance = 10;
-            for (int theSlop=0;theSlop<theMaxEditDistance;theSlop++) {
-                SpanQuery theNearQuery = new SpanNearQuery(theSpans.toArray(new SpanQuery[theSpans.size()]), theSlop, false);
-                theNearQuery.setBoost(50 + theMaxEditDistance - theSlop);
-                theResult.add(theNearQuery, BooleanClause.Occur.SHOULD);
-            }
+            if (thePlainTermsOnly) {
+                // The positions of plain terms are walked only once for the exact match, all slops and the terms
+                if (!theTokenizedTerms.isEmpty()) {
+                    theResult.add(new ProximityQuery(aSearchField, theTokenizedTerms.toArray(new String[theTokenizedTerms.size()])),
+                            BooleanClause.Occur.MUST);
+                }
+            } else {
+                // This is the original span, so we boost it a lot
+                SpanQuery theExactMatchQuery = new SpanNearQuery(theSpans.toArray(new SpanQuery[theSpans.size()]), 0, true);
+                theExactMatchQuery.setBoost(ProximityQuery.EXACT_MATCH_BOOST);
+                theResult.add(theExactMatchQuery, BooleanClause.Occur.SHOULD);
+
+                for (int theSlop = 0; theSlop < ProximityQuery.MAX_EDIT_DISTANCE; theSlop++) {
+                    SpanQuery theNearQuery = new SpanNearQuery(theSpans.toArray(new SpanQuery[theSpans.size()]), theSlop, false);
+                    theNearQuery.setBoost(ProximityQuery.slopBoost(theSlop));
+                    theResult.add(theNearQuery, BooleanClause.Occur.SHOULD);
+                }
 
-            // Finally, we just add simple term queries, but do not boost them
-            // This makes sure that at least the searched terms
-            // are found in the document
-            addToBooleanQuery(theTokenizer.getRequiredTerms(), aSearchField, theResult, BooleanClause.Occur.MUST);
+                // Finally, we just add simple term queries, but do not boost them
+                // This makes sure that at least the searched terms
+                // are found in the document
+                addToBooleanQuery(theTokenizer.getRequiredTerms(), aSearchField, theResult, BooleanClause.Occur.MUST);
+            }
         }
 
 
@@ -0,0 +1,223 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the most recently used query results of the current searcher. Paging back or repeating a drilldown does not
+ * run search, facets, highlighting and similar documents again.
+ */
+class QueryResultCache extends ReaderCache<LinkedHashMap<QueryResultCache.Key, QueryResultCache.Entry>> {
+
+    // Rough per object overhead used for the size estimation
+    private static final int OBJECT_OVERHEAD = 64;
+
+    static final class Key {
+
+        private final String query;
+        private final Map<String, Object> drilldownFields;
+        private final String backLink;
+        private final String basePath;
+        private final int numberOfResults;
+        private final boolean similarDocuments;
+
+        Key(String aQueryString, Map<String, Object> aDrilldownFields, String aBackLink, String aBasePath, Configuration aConfiguration) {
+            query = normalize(aQueryString);
+            drilldownFields = new HashMap<>(aDrilldownFields);
+            backLink = aBackLink;
+            basePath = aBasePath;
+            numberOfResults = aConfiguration.getNumberOfSearchResults();
+            similarDocuments = aConfiguration.isShowSimilarDocuments();
+        }
+
+        @Override
+        public boolean equals(Object aOther) {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key theOther = (Key) aOther;
+            return numberOfResults == theOther.numberOfResults
+                    && similarDocuments == theOther.similarDocuments && Objects.equals(query, theOther.query)
+                    && drilldownFields.equals(theOther.drilldownFields) && Objects.equals(backLink, theOther.backLink)
+                    && Objects.equals(basePath, theOther.basePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, drilldownFields, backLink, basePath, numberOfResults, similarDocuments);
+        }
+    }
+
+    /**
+     * Queries are tokenized case insensitive and split at blanks, so only the terms and their order are relevant.
+     */
+    static String normalize(String aQueryString) {
+        if (StringUtils.isEmpty(aQueryString)) {
+            // Matches all documents
+            return null;
+        }
+        QueryTokenizer theTokenizer = new QueryTokenizer(aQueryString);
+        StringBuilder theResult = new StringBuilder();
+        for (String theTerm : theTokenizer.getRequiredTerms()) {
+            theResult.append('+').append(theTerm).append(' ');
+        }
+        for (String theTerm : theTokenizer.getNotRequiredTerms()) {
+            theResult.append('-').append(theTerm).append(' ');
+        }
+        return theResult.toString();
+    }
+
+    static final class Entry {
+
+        private final QueryResult result;
+        private final long size;
+
+        Entry(QueryResult aResult, long aSize) {
+            result = aResult;
+            size = aSize;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryResultCache(int aMaxEntries, long aMaxBytes) {
+        maxEntries = aMaxEntries;
+        maxBytes = aMaxBytes;
+    }
+
+    @Override
+    protected LinkedHashMap<Key, Entry> load(IndexReader aReader) {
+        bytes = 0;
+        return new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized QueryResult get(IndexReader aReader, Key aKey) throws IOException {
+        Entry theEntry = get(aReader).get(aKey);
+        if (theEntry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return theEntry.result;
+    }
+
+    public void put(IndexReader aReader, Key aKey, QueryResult aResult) throws IOException {
+        // This waits for the highlighter, so it is done before locking
+        long theSize;
+        try {
+            theSize = estimateSize(aResult);
+        } catch (RuntimeException e) {
+            // The highlighter failed, so the next query should try again
+            return;
+        }
+        store(aReader, aKey, aResult, theSize);
+    }
+
+    private synchronized void store(IndexReader aReader, Key aKey, QueryResult aResult, long aSize) throws IOException {
+        if (maxEntries <= 0 || aSize > maxBytes) {
+            return;
+        }
+        LinkedHashMap<Key, Entry> theEntries = get(aReader);
+        Entry theOld = theEntries.put(aKey, new Entry(aResult, aSize));
+        if (theOld != null) {
+            bytes -= theOld.size;
+        }
+        bytes += aSize;
+
+        // The least recently used entries come first
+        Iterator<Entry> theIterator = theEntries.values().iterator();
+        while (theEntries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= theIterator.next().size;
+            theIterator.remove();
+            evictions++;
+        }
+    }
+
+    static long estimateSize(QueryResult aResult) {
+        long theSize = OBJECT_OVERHEAD + sizeOf(aResult.getBackLink());
+        for (QueryResultDocument theDocument : aResult.getDocuments()) {
+            theSize += OBJECT_OVERHEAD + sizeOf(theDocument.getUniqueID()) + sizeOf(theDocument.getHighlightedSearchResult());
+            for (String theFileName : theDocument.getFileNames()) {
+                theSize += sizeOf(theFileName);
+            }
+            for (String theFileName : theDocument.getSimilarFiles()) {
+                theSize += sizeOf(theFileName);
+            }
+        }
+        for (FacetDimension theDimension : aResult.getFacetDimensions()) {
+            theSize += OBJECT_OVERHEAD + sizeOf(theDimension.getName());
+            for (Facet theFacet : theDimension.getFacets()) {
+                theSize += OBJECT_OVERHEAD + sizeOf(theFacet.getName()) + sizeOf(theFacet.getLink());
+            }
+        }
+        return theSize;
+    }
+
+    private static long sizeOf(String aValue) {
+        return aValue == null ? 0 : OBJECT_OVERHEAD + 2L * aValue.length();
+    }
+
+    @Override
+    public synchronized void afterRefresh(boolean aDidRefresh) {
+        if (aDidRefresh && size() > 0) {
+            invalidations++;
+        }
+        if (aDidRefresh) {
+            bytes = 0;
+        }
+        super.afterRefresh(aDidRefresh);
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        long theLookups = hits + misses;
+        return theLookups == 0 ? 0 : (double) hits / theLookups;
+    }
+
+    public synchronized int size() {
+        Map<Key, Entry> theEntries = current();
+        return theEntries != null ? theEntries.size() : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryResultCache{entries=" + size() + ", kilobytes=" + bytes / 1024 + ", hits=" + hits + ", misses=" + misses
+                + ", hitRate=" + Math.round(getHitRate() * 100) + "%, evictions=" + evictions + ", invalidations=" + invalidations + '}';
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ReferenceManager;
+
+import java.io.IOException;
+
+/**
+ * Base of the caches holding a value computed from the reader of the current searcher. Queries might still use an
+ * older searcher, so the value is only returned for the reader it was computed from. It is dropped when the searcher
+ * is reopened, so the old reader does not stay reachable.
+ */
+abstract class ReaderCache<T> implements ReferenceManager.RefreshListener {
+
+    private IndexReader reader;
+    private T value;
+
+    /**
+     * Computes the value for a reader, the cache is locked meanwhile.
+     */
+    protected abstract T load(IndexReader aReader) throws IOException;
+
+    protected synchronized T get(IndexReader aReader) throws IOException {
+        if (value == null || reader != aReader) {
+            value = load(aReader);
+            reader = aReader;
+        }
+        return value;
+    }
+
+    /**
+     * @return the value of the current reader, or null if it was not computed yet
+     */
+    protected synchronized T current() {
+        return value;
+    }
+
+    @Override
+    public void beforeRefresh() {
+    }
+
+    @Override
+    public synchronized void afterRefresh(boolean aDidRefresh) {
+        if (aDidRefresh) {
+            reader = null;
+            value = null;
+        }
+    }
+}
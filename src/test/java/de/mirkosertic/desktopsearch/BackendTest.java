@@ -0,0 +1,91 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackendTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void crawl(Configuration aConfiguration, boolean aIncremental) throws IOException, InterruptedException {
+        CountDownLatch theFinished = new CountDownLatch(1);
+        Backend theBackend = new Backend(null, aConfiguration, new PreviewProcessor());
+        try {
+            theBackend.setProgressListener(new ProgressListener() {
+                @Override
+                public void newFileFound(String aFilename) {
+                }
+
+                @Override
+                public void crawlingFinished() {
+                    theFinished.countDown();
+                }
+            });
+            theBackend.crawlLocations(aIncremental);
+            assertTrue(theFinished.await(60, TimeUnit.SECONDS));
+        } finally {
+            theBackend.shutdown();
+        }
+    }
+
+    @Test
+    public void testFilesModifiedWhileNotRunningAreReindexedByFullCrawl() throws IOException, InterruptedException {
+        File theDocuments = folder.newFolder("documents");
+        Path theFile = theDocuments.toPath().resolve("notes.txt");
+        Files.write(theFile, "The first version of the notes".getBytes("UTF-8"));
+        Configuration theConfiguration = new ConfigurationManager(folder.newFolder("config")).getConfiguration()
+                .addLocation(new Configuration.CrawlLocation("documents", theDocuments));
+        crawl(theConfiguration, true);
+
+        // Modifying the file in place does not change its directory
+        FileTime theDirectoryModified = Files.getLastModifiedTime(theDocuments.toPath());
+        Files.write(theFile, "The second version of the notes".getBytes("UTF-8"));
+        long theFileModified = Files.getLastModifiedTime(theFile).toMillis() + 60000;
+        Files.setLastModifiedTime(theFile, FileTime.fromMillis(theFileModified));
+        Files.setLastModifiedTime(theDocuments.toPath(), theDirectoryModified);
+
+        // The incremental crawl does not even stat the files of an unchanged directory
+        crawl(theConfiguration, true);
+        assertEquals(UpdateCheckResult.UPDATED, checkIfModified(theConfiguration, theFile, theFileModified));
+
+        crawl(theConfiguration, false);
+        assertEquals(UpdateCheckResult.UNMODIFIED, checkIfModified(theConfiguration, theFile, theFileModified));
+    }
+
+    private static UpdateCheckResult checkIfModified(Configuration aConfiguration, Path aFile, long aLastModified) throws IOException {
+        LuceneIndexHandler theIndexHandler = new LuceneIndexHandler(aConfiguration, new AnalyzerCache(aConfiguration), null, null);
+        try {
+            return theIndexHandler.checkIfModified(aFile.toString(), aLastModified);
+        } finally {
+            theIndexHandler.shutdown();
+        }
+    }
+}
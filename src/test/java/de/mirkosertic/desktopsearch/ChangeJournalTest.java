@@ -0,0 +1,125 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayAfterReopen() throws IOException {
+        File theFile = new File(folder.getRoot(), "test.journal");
+        ChangeJournal theJournal = new ChangeJournal(theFile);
+        theJournal.append(StandardWatchEventKinds.ENTRY_CREATE, Paths.get("/data/a.txt"));
+        theJournal.append(StandardWatchEventKinds.ENTRY_DELETE, Paths.get("/data/b.txt"));
+        theJournal.close();
+
+        List<String> theEvents = replay(new ChangeJournal(theFile));
+        assertEquals(2, theEvents.size());
+        assertEquals("ENTRY_CREATE " + Paths.get("/data/a.txt"), theEvents.get(0));
+        assertEquals("ENTRY_DELETE " + Paths.get("/data/b.txt"), theEvents.get(1));
+    }
+
+    @Test
+    public void testTruncate() throws IOException {
+        File theFile = new File(folder.getRoot(), "test.journal");
+        ChangeJournal theJournal = new ChangeJournal(theFile);
+        for (int i = 0; i < 10000; i++) {
+            theJournal.append(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get("/data/file" + i + ".txt"));
+        }
+        int theCheckpoint = theJournal.getPosition();
+        theJournal.append(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get("/data/pending.txt"));
+        theJournal.truncate(theCheckpoint);
+        theJournal.close();
+
+        theJournal = new ChangeJournal(theFile);
+        List<String> theEvents = replay(theJournal);
+        assertEquals(1, theEvents.size());
+        assertEquals("ENTRY_MODIFY " + Paths.get("/data/pending.txt"), theEvents.get(0));
+
+        theJournal.truncate(theJournal.getPosition());
+        assertEquals(0, replay(theJournal).size());
+        theJournal.close();
+
+        // The burst does not keep the file large
+        theJournal = new ChangeJournal(theFile);
+        assertEquals(0, replay(theJournal).size());
+        theJournal.close();
+        assertEquals(64 * 1024, theFile.length());
+    }
+
+    @Test
+    public void testTruncateMovesRemainingRecordsToTheFront() throws IOException {
+        File theFile = new File(folder.getRoot(), "test.journal");
+        ChangeJournal theJournal = new ChangeJournal(theFile);
+        for (int i = 0; i < 100; i++) {
+            theJournal.append(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get("/data/file" + i + ".txt"));
+        }
+        int theCheckpoint = theJournal.getPosition();
+        theJournal.append(StandardWatchEventKinds.ENTRY_CREATE, Paths.get("/data/first.txt"));
+        theJournal.append(StandardWatchEventKinds.ENTRY_DELETE, Paths.get("/data/second.txt"));
+        theJournal.truncate(theCheckpoint);
+        assertTrue(theJournal.getPosition() < theCheckpoint);
+        theJournal.close();
+
+        List<String> theEvents = replay(new ChangeJournal(theFile));
+        assertEquals(2, theEvents.size());
+        assertEquals("ENTRY_CREATE " + Paths.get("/data/first.txt"), theEvents.get(0));
+        assertEquals("ENTRY_DELETE " + Paths.get("/data/second.txt"), theEvents.get(1));
+    }
+
+    @Test
+    public void testClosedJournalDoesNotTouchTheFile() throws IOException {
+        File theFile = new File(folder.getRoot(), "test.journal");
+        ChangeJournal theJournal = new ChangeJournal(theFile);
+        theJournal.append(StandardWatchEventKinds.ENTRY_CREATE, Paths.get("/data/a.txt"));
+        theJournal.close();
+
+        // The location is added again while the old journal is still referenced
+        ChangeJournal theNewJournal = new ChangeJournal(theFile);
+        theJournal.append(StandardWatchEventKinds.ENTRY_DELETE, Paths.get("/data/late.txt"));
+        theJournal.truncate(theJournal.getPosition());
+        theJournal.close();
+
+        List<String> theEvents = replay(theNewJournal);
+        assertEquals(1, theEvents.size());
+        assertEquals("ENTRY_CREATE " + Paths.get("/data/a.txt"), theEvents.get(0));
+        theNewJournal.close();
+    }
+
+    private static List<String> replay(ChangeJournal aJournal) {
+        List<String> theResult = new ArrayList<>();
+        aJournal.replay((Path aPath, WatchEvent.Kind<?> aKind) -> theResult.add(aKind.name() + " " + aPath));
+        return theResult;
+    }
+}
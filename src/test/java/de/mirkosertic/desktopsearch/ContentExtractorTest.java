@@ -16,6 +16,7 @@
 package de.mirkosertic.desktopsearch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -75,4 +76,60 @@ public class ContentExtractorTest {
         }, Integer::sum);
         assertEquals(15, count);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIsWorthExtracting() throws IOException, URISyntaxException {
+        ConfigurationManager configurationManager = new ConfigurationManager(folder.getRoot());
+        ContentExtractor theExtractor = new ContentExtractor(configurationManager.getConfiguration());
+
+        URL resource = getClass().getResource("IMG_0653_resized.jpg");
+        assertTrue(theExtractor.isWorthExtracting(Paths.get(resource.toURI())));
+
+        Path theText = folder.newFile("README").toPath();
+        Files.write(theText, "Some plain text without an extension".getBytes("UTF-8"));
+        assertTrue(theExtractor.isWorthExtracting(theText));
+
+        Path theArchive = folder.newFile("archive.zip").toPath();
+        Files.write(theArchive, new byte[] {0x50, 0x4b, 0x03, 0x04, 0x14, 0, 0, 0, 0, 0});
+        assertFalse(theExtractor.isWorthExtracting(theArchive));
+
+        Path theBlob = folder.newFile("blob.bin").toPath();
+        Files.write(theBlob, new byte[] {0, 1, 2, 3, (byte) 0xff, (byte) 0xfe, 7, 9, 0, 0});
+        assertFalse(theExtractor.isWorthExtracting(theBlob));
+
+        assertEquals(2, theExtractor.getRejectedFileCount());
+    }
+
+    @Test
+    public void testSmallAndLargeFiles() throws IOException {
+        ConfigurationManager configurationManager = new ConfigurationManager(folder.getRoot());
+        ContentExtractor theExtractor = new ContentExtractor(configurationManager.getConfiguration());
+
+        // A longer file first, the shorter one must not see its remains in the reused buffer
+        Path theLonger = folder.newFile("longer.txt").toPath();
+        Files.write(theLonger, "The longer file with some more words".getBytes("UTF-8"));
+        Content theContent = theExtractor.extractContentFrom(theLonger, Files.readAttributes(theLonger, BasicFileAttributes.class));
+        assertEquals("The longer file with some more words", theContent.getFileContent().trim());
+
+        Path theShorter = folder.newFile("shorter.txt").toPath();
+        Files.write(theShorter, "The shorter file".getBytes("UTF-8"));
+        theContent = theExtractor.extractContentFrom(theShorter, Files.readAttributes(theShorter, BasicFileAttributes.class));
+        assertEquals("The shorter file", theContent.getFileContent().trim());
+
+        // Files of 4 Meg and more are streamed, the comment keeps the text below the character limit
+        Path theLarge = folder.newFile("large.html").toPath();
+        StringBuilder theText = new StringBuilder("<html><body><p>The streamed file</p><!--");
+        while (theText.length() < 1024 * 1024 * 5) {
+            theText.append("padding ");
+        }
+        theText.append("--></body></html>");
+        Files.write(theLarge, theText.toString().getBytes("UTF-8"));
+        theContent = theExtractor.extractContentFrom(theLarge, Files.readAttributes(theLarge, BasicFileAttributes.class));
+        assertEquals("The streamed file", theContent.getFileContent().trim());
+
+        // A file growing while it is read is streamed once it reaches the limit
+        assertEquals(-1, theExtractor.readFully(theLarge, 16));
+        theContent = theExtractor.extractContentFrom(theLarge, Files.readAttributes(theShorter, BasicFileAttributes.class));
+        assertEquals("The streamed file", theContent.getFileContent().trim());
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CrawlManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CrawlManifest manifest;
+    private final Set<Path> unchangedFiles = Collections.synchronizedSet(new HashSet<>());
+    private final Set<Path> unreadableDirectories = Collections.synchronizedSet(new HashSet<>());
+
+    private Set<Path> filesFound(Path aRoot, CrawlManifest aPreviousManifest) throws IOException {
+        Set<Path> theFiles = Collections.synchronizedSet(new HashSet<>());
+        unchangedFiles.clear();
+        manifest = new ParallelDirectoryWalker(2, aPreviousManifest, new ParallelDirectoryWalker.Visitor() {
+            @Override
+            public void directoryFound(Path aDirectory) throws IOException {
+                if (unreadableDirectories.contains(aDirectory)) {
+                    throw new IOException("Access denied");
+                }
+            }
+
+            @Override
+            public void fileFound(Path aFile, BasicFileAttributes aAttributes) {
+                theFiles.add(aFile);
+            }
+
+            @Override
+            public void fileUnchanged(Path aFile) {
+                unchangedFiles.add(aFile);
+            }
+        }).walk(aRoot);
+        return theFiles;
+    }
+
+    @Test
+    public void testInvalidatedDirectoryIsCheckedAgain() throws IOException {
+        Path theRoot = folder.newFolder("root").toPath();
+        Path theSubDirectory = Files.createDirectory(theRoot.resolve("sub"));
+        Path theFile = Files.createFile(theSubDirectory.resolve("locked.txt"));
+        Path theOtherFile = Files.createFile(theRoot.resolve("other.txt"));
+
+        assertEquals(new HashSet<>(Arrays.asList(theFile, theOtherFile)), filesFound(theRoot, new CrawlManifest()));
+
+        // Nothing changed, so no file is checked
+        assertEquals(Collections.emptySet(), filesFound(theRoot, manifest));
+        assertEquals(new HashSet<>(Arrays.asList(theFile, theOtherFile)), unchangedFiles);
+
+        // The extraction of locked.txt failed, so its directory is invalidated in the written manifest
+        File theManifestFile = new File(folder.getRoot(), "manifest.json");
+        manifest.writeTo(theManifestFile);
+        CrawlManifest.invalidate(theManifestFile, theSubDirectory);
+        CrawlManifest theLoaded = CrawlManifest.load(theManifestFile);
+        assertEquals(Collections.singleton(theFile), filesFound(theRoot, theLoaded));
+
+        // The new manifest has the valid state again
+        assertEquals(Collections.emptySet(), filesFound(theRoot, manifest));
+
+        manifest.invalidate(theSubDirectory);
+        assertEquals(Collections.singleton(theFile), filesFound(theRoot, manifest));
+    }
+
+    @Test
+    public void testUnreadableDirectoryDoesNotFailTheWalk() throws IOException {
+        Path theRoot = folder.newFolder("root").toPath();
+        Path theSubDirectory = Files.createDirectory(theRoot.resolve("sub"));
+        Path theFile = Files.createFile(theSubDirectory.resolve("file.txt"));
+        Path theOtherFile = Files.createFile(theRoot.resolve("other.txt"));
+
+        unreadableDirectories.add(theSubDirectory);
+        assertEquals(Collections.singleton(theOtherFile), filesFound(theRoot, new CrawlManifest()));
+        assertEquals(Collections.singletonList(theSubDirectory.toString()), manifest.invalidDirectories());
+
+        // The failed directory is known to its unchanged parent, so it is read again instead of being taken for a file
+        unreadableDirectories.clear();
+        assertEquals(Collections.singleton(theFile), filesFound(theRoot, manifest));
+        assertEquals(Collections.singleton(theOtherFile), unchangedFiles);
+        assertTrue(manifest.invalidDirectories().isEmpty());
+
+        // A written manifest can be read again and keeps the failed directory
+        File theManifestFile = new File(folder.getRoot(), "manifest.json");
+        manifest.failed(theSubDirectory);
+        manifest.writeTo(theManifestFile);
+        assertEquals(Collections.singletonList(theSubDirectory.toString()), CrawlManifest.load(theManifestFile).invalidDirectories());
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ExtractionCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRestoreFromCache() throws IOException, URISyntaxException {
+        URL resource = getClass().getResource("IMG_0653_resized.jpg");
+        Path theFile = Paths.get(resource.toURI());
+        ConfigurationManager configurationManager = new ConfigurationManager(folder.getRoot());
+        Configuration theConfiguration = configurationManager.getConfiguration();
+        ContentExtractor theExtractor = new ContentExtractor(theConfiguration);
+        BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        Content theContent = theExtractor.extractContentFrom(theFile, theAttributes);
+
+        File theDirectory = ExtractionCache.directoryFor(folder.getRoot());
+        String theKey = ExtractionCache.keyFor(theFile, theAttributes.size());
+        new ExtractionCache(theDirectory, 1024 * 1024).put(theKey, new CachedContent(theContent, 100000));
+
+        // Entries survive a restart
+        ExtractionCache theCache = new ExtractionCache(theDirectory, 1024 * 1024);
+        assertNull(theCache.get("unknown-1", 100000));
+        CachedContent theCachedContent = theCache.get(theKey, 100000);
+        assertNotNull(theCachedContent);
+        assertEquals(1, theCache.getHitCount());
+        assertEquals(1, theCache.getMissCount());
+
+        // Extracted with another character limit, so the entry is outdated
+        assertNull(theCache.get(theKey, 50000));
+        assertEquals(1, theCache.getHitCount());
+        assertEquals(2, theCache.getMissCount());
+        assertEquals(0, theCache.size());
+
+        Content theRestored = theExtractor.restoreContentFrom(theFile, theAttributes, theCachedContent);
+        assertEquals(theContent.getFileContent(), theRestored.getFileContent());
+        assertEquals(theContent.getLanguage(), theRestored.getLanguage());
+        assertEquals(describe(theContent), describe(theRestored));
+    }
+
+    @Test
+    public void testEviction() {
+        ExtractionCache theCache = new ExtractionCache(ExtractionCache.directoryFor(folder.getRoot()), 1000);
+        Content theContent = new Content("a.txt", "some text", 9, 0, SupportedLanguage.getDefault(), true);
+        theCache.put("aa-1", new CachedContent(theContent, 100000));
+        theCache.put("bb-1", new CachedContent(theContent, 100000));
+        assertNotNull(theCache.get("aa-1", 100000));
+        for (int i = 0; i < 20; i++) {
+            theCache.put("cc-" + i, new CachedContent(theContent, 100000));
+        }
+        assertNull(theCache.get("bb-1", 100000));
+        assertNotNull(theCache.get("cc-19", 100000));
+    }
+
+    @Test
+    public void testCopiesAreParsedOnce() throws IOException {
+        ConfigurationManager configurationManager = new ConfigurationManager(folder.getRoot());
+        ContentExtractor theExtractor = new ContentExtractor(configurationManager.getConfiguration());
+        ExtractionCache theCache = new ExtractionCache(ExtractionCache.directoryFor(folder.getRoot()), 1024 * 1024);
+
+        byte[] theData = "The same text in two files".getBytes("UTF-8");
+        Path theFile = folder.newFile("original.txt").toPath();
+        Files.write(theFile, theData);
+        Path theCopy = folder.newFile("copy.txt").toPath();
+        Files.write(theCopy, theData);
+
+        // The key of the bytes read for parsing is the key of the file
+        assertEquals(ExtractionCache.keyFor(theFile, theData.length), ExtractionCache.keyFor(theData, theData.length));
+
+        Content theContent = theExtractor.extractContentFrom(theFile, Files.readAttributes(theFile, BasicFileAttributes.class), theCache);
+        assertEquals(0, theCache.getHitCount());
+        assertEquals(1, theCache.size());
+        Content theCopiedContent = theExtractor.extractContentFrom(theCopy, Files.readAttributes(theCopy, BasicFileAttributes.class), theCache);
+        assertEquals(1, theCache.getHitCount());
+        assertEquals(theContent.getFileContent(), theCopiedContent.getFileContent());
+        assertEquals(theCopy.toString(), theCopiedContent.getFileName());
+    }
+
+    private static List<String> describe(Content aContent) {
+        return aContent.getMetadata().map(theEntry -> theEntry.key + "=" + theEntry.value).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExtractionWatchdogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTimeoutQuarantinesFile() throws IOException {
+        File theQuarantineFile = ExtractionWatchdog.quarantineFileFor(folder.getRoot());
+        Path theFile = folder.newFile("slow.pdf").toPath();
+        BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        Content theContent = new Content(theFile.toString(), "text", 4, 0, SupportedLanguage.getDefault(), true);
+
+        ExtractionWatchdog theWatchdog = new ExtractionWatchdog(theQuarantineFile, 200, 0);
+        assertNotNull(theWatchdog.extract(theFile, theAttributes, () -> theContent));
+        assertNull(theWatchdog.extract(theFile, theAttributes, () -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return theContent;
+        }));
+        assertEquals(1, theWatchdog.getTimeoutCount());
+        theWatchdog.shutdown();
+
+        // The quarantine is persisted and released once the file changes
+        theWatchdog = new ExtractionWatchdog(theQuarantineFile, 200, 0);
+        assertTrue(theWatchdog.isQuarantined(theFile, theAttributes));
+        Files.setLastModifiedTime(theFile, FileTime.fromMillis(theAttributes.lastModifiedTime().toMillis() + 1000));
+        assertFalse(theWatchdog.isQuarantined(theFile, Files.readAttributes(theFile, BasicFileAttributes.class)));
+        assertEquals(0, theWatchdog.getQuarantineSize());
+        theWatchdog.shutdown();
+    }
+
+    @Test
+    public void testAllocationLimitGrowsWithFileSize() {
+        assertEquals(ExtractionWatchdog.MIN_ALLOCATION_LIMIT_BYTES, ExtractionWatchdog.allocationLimitFor(1024, 1000));
+        assertEquals(100L * 1024 * 1024 * 1000, ExtractionWatchdog.allocationLimitFor(100L * 1024 * 1024, 1000));
+        assertEquals(Long.MAX_VALUE, ExtractionWatchdog.allocationLimitFor(Long.MAX_VALUE / 10, 1000));
+    }
+
+    @Test
+    public void testAbandonedThreadsStopExtraction() throws IOException, InterruptedException {
+        ExtractionWatchdog theWatchdog = new ExtractionWatchdog(ExtractionWatchdog.quarantineFileFor(folder.getRoot()), 100, 0);
+        Content theContent = new Content("a.txt", "text", 4, 0, SupportedLanguage.getDefault(), true);
+        AtomicBoolean theRelease = new AtomicBoolean();
+        for (int i = 0; i < ExtractionWatchdog.MAX_ABANDONED_THREADS; i++) {
+            Path theFile = folder.newFile("stuck" + i + ".pdf").toPath();
+            // This parser ignores the interrupt
+            assertNull(theWatchdog.extract(theFile, Files.readAttributes(theFile, BasicFileAttributes.class), () -> {
+                while (!theRelease.get()) {
+                    Thread.yield();
+                }
+                return theContent;
+            }));
+        }
+        assertEquals(ExtractionWatchdog.MAX_ABANDONED_THREADS, theWatchdog.getAbandonedThreadCount());
+
+        Path theFile = folder.newFile("fine.txt").toPath();
+        BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        assertNull(theWatchdog.extract(theFile, theAttributes, () -> theContent));
+        assertEquals(1, theWatchdog.getRefusedExtractionCount());
+
+        theRelease.set(true);
+        while (theWatchdog.getAbandonedThreadCount() > 0) {
+            Thread.sleep(10);
+        }
+        assertNotNull(theWatchdog.extract(theFile, theAttributes, () -> theContent));
+        theWatchdog.shutdown();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExtractionWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExtractionInWorker() throws IOException, InterruptedException {
+        Configuration theConfiguration = new ConfigurationManager(folder.getRoot()).getConfiguration();
+        ExtractionWatchdog theWatchdog = new ExtractionWatchdog(ExtractionWatchdog.quarantineFileFor(folder.getRoot()), 0, 0);
+        ExtractionWorkerPool thePool = new ExtractionWorkerPool(theConfiguration, theWatchdog, 1, 256, 1, 60000);
+        try {
+            Path theFile = folder.newFile("worker.txt").toPath();
+            Files.write(theFile, "Extracted in another process".getBytes("UTF-8"));
+            BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+
+            CachedContent theContent = thePool.extract(theFile, theAttributes);
+            assertNotNull(theContent);
+            assertEquals("Extracted in another process", theContent.getFileContent().trim());
+
+            // The worker is recycled after every document
+            assertNotNull(thePool.extract(theFile, theAttributes));
+            assertEquals(2, thePool.getDocumentCount());
+            assertEquals(2, thePool.getStartCount());
+            assertEquals(0, thePool.getFailureCount());
+        } finally {
+            thePool.shutdown();
+            theWatchdog.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeoutQuarantinesFile() throws IOException, InterruptedException {
+        Configuration theConfiguration = new ConfigurationManager(folder.getRoot()).getConfiguration();
+        ExtractionWatchdog theWatchdog = new ExtractionWatchdog(ExtractionWatchdog.quarantineFileFor(folder.getRoot()), 0, 0);
+        // Parsing the first document in a fresh process loads the parsers, which takes longer than this
+        ExtractionWorkerPool thePool = new ExtractionWorkerPool(theConfiguration, theWatchdog, 1, 256, 100, 1);
+        try {
+            Path theFile = folder.newFile("slow.txt").toPath();
+            Files.write(theFile, "Never extracted".getBytes("UTF-8"));
+            BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+            assertFalse(theWatchdog.isQuarantined(theFile, theAttributes));
+
+            assertNull(thePool.extract(theFile, theAttributes));
+            assertEquals(1, thePool.getStartCount());
+            assertEquals(1, thePool.getFailureCount());
+            assertTrue(theWatchdog.isQuarantined(theFile, theAttributes));
+        } finally {
+            thePool.shutdown();
+            theWatchdog.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedStartDoesNotQuarantine() throws IOException, InterruptedException {
+        Configuration theConfiguration = new ConfigurationManager(folder.getRoot()).getConfiguration();
+        ExtractionWatchdog theWatchdog = new ExtractionWatchdog(ExtractionWatchdog.quarantineFileFor(folder.getRoot()), 0, 0);
+        // The JVM refuses to boot with this heap
+        ExtractionWorkerPool thePool = new ExtractionWorkerPool(theConfiguration, theWatchdog, 1, -1, 100, 60000);
+        try {
+            Path theFile = folder.newFile("innocent.txt").toPath();
+            Files.write(theFile, "Not to blame".getBytes("UTF-8"));
+            BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    thePool.extract(theFile, theAttributes);
+                    fail("The worker should not start");
+                } catch (IOException e) {
+                    // Expected, the caller extracts in process
+                }
+            }
+            // Starting is not tried again for every file
+            assertEquals(1, thePool.getStartFailureCount());
+            assertEquals(0, thePool.getStartCount());
+            assertEquals(0, thePool.getFailureCount());
+            assertFalse(theWatchdog.isQuarantined(theFile, theAttributes));
+        } finally {
+            thePool.shutdown();
+            theWatchdog.shutdown();
+        }
+    }
+
+    private static byte[] readFrame(int aLength, int aMaxLength) throws IOException {
+        ByteArrayOutputStream theBytes = new ByteArrayOutputStream();
+        DataOutputStream theOutput = new DataOutputStream(theBytes);
+        theOutput.writeInt(aLength);
+        theOutput.write(new byte[Math.max(0, Math.min(aLength, 16))]);
+        return ExtractionWorker.readFrame(new DataInputStream(new ByteArrayInputStream(theBytes.toByteArray())), aMaxLength);
+    }
+
+    @Test
+    public void testCorruptedFrameLengthIsRejected() throws IOException {
+        int theMaxLength = ExtractionWorker.maxResponseLength(100000);
+        assertEquals(16, readFrame(16, theMaxLength).length);
+        assertNull(readFrame(ExtractionWorker.NO_CONTENT, theMaxLength));
+
+        for (int theLength : new int[] {-2, Integer.MIN_VALUE, theMaxLength + 1, Integer.MAX_VALUE}) {
+            try {
+                readFrame(theLength, theMaxLength);
+                fail("Length " + theLength + " should be rejected");
+            } catch (IOException e) {
+                // Expected, the pool replaces the worker and quarantines the file
+            }
+        }
+    }
+}
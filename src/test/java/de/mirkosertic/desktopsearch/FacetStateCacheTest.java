@@ -0,0 +1,70 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class FacetStateCacheTest {
+
+    private static void addDocument(TestIndex aIndex, FacetsConfig aConfig, String aAuthor) throws IOException {
+        Document theDocument = new Document();
+        theDocument.add(new SortedSetDocValuesFacetField("author", aAuthor));
+        aIndex.addDocument(aConfig.build(theDocument));
+    }
+
+    @Test
+    public void testStateIsReusedUntilRefresh() throws IOException {
+        FacetsConfig theConfig = new MultiValuedFacetsConfig();
+        FacetStateCache theCache = new FacetStateCache();
+        try (TestIndex theIndex = new TestIndex(theCache)) {
+            addDocument(theIndex, theConfig, "mirko");
+            theIndex.refresh();
+
+            IndexSearcher theSearcher = theIndex.acquire();
+            SortedSetDocValuesReaderState theState = theCache.getState(theSearcher.getIndexReader());
+            assertSame(theState, theCache.getState(theSearcher.getIndexReader()));
+            theIndex.release(theSearcher);
+
+            // Nothing changed, so the searcher and the state stay
+            theIndex.refresh();
+            theSearcher = theIndex.acquire();
+            assertSame(theState, theCache.getState(theSearcher.getIndexReader()));
+            theIndex.release(theSearcher);
+
+            addDocument(theIndex, theConfig, "someone else");
+            theIndex.refresh();
+            theSearcher = theIndex.acquire();
+            SortedSetDocValuesReaderState theNewState = theCache.getState(theSearcher.getIndexReader());
+            assertNotSame(theState, theNewState);
+            assertEquals(2, theNewState.getSize());
+            theIndex.release(theSearcher);
+
+            assertEquals(2, theCache.getHitCount());
+            assertEquals(2, theCache.getMissCount());
+        }
+    }
+}
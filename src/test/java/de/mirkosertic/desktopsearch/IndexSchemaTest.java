@@ -0,0 +1,192 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexSchemaTest {
+
+    private static final Logger LOGGER = Logger.getLogger(IndexSchemaTest.class);
+
+    private static final int NUMBER_OF_DOCUMENTS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Content> createContents() throws IOException {
+        File theDocuments = folder.newFolder("documents");
+        Random theRandom = new Random(42);
+        List<String> theWords = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder theWord = new StringBuilder();
+            int theLength = 3 + theRandom.nextInt(7);
+            for (int j = 0; j < theLength; j++) {
+                theWord.append((char) ('a' + theRandom.nextInt(26)));
+            }
+            theWords.add(theWord.toString());
+        }
+
+        List<Content> theResult = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+            File theFile = new File(theDocuments, "document" + i + ".txt");
+            theFile.createNewFile();
+            StringBuilder theText = new StringBuilder();
+            while (theText.length() < 10000) {
+                if (theRandom.nextInt(100) == 0) {
+                    theText.append("quarterly report finance ");
+                }
+                // Some words are a lot more frequent than others
+                theText.append(theWords.get((int) (theWords.size() * Math.pow(theRandom.nextDouble(), 3)))).append(' ');
+            }
+            Content theContent = new Content(theFile.toString(), theText.toString(), theText.length(), theFile.lastModified(),
+                    SupportedLanguage.getDefault(), true);
+            theContent.addMetaData("author", "author" + (i % 10));
+            theResult.add(theContent);
+        }
+        return theResult;
+    }
+
+    private static LuceneIndexHandler createHandler(File aConfigDirectory, boolean aLean) throws IOException {
+        Configuration theConfiguration = TestConfiguration.load(aConfigDirectory, "leanIndexSchema", aLean);
+        return new LuceneIndexHandler(theConfiguration, new AnalyzerCache(theConfiguration), new ExecutorPool(), new PreviewProcessor());
+    }
+
+    private static long index(File aConfigDirectory, boolean aLean, List<Content> aContents) throws IOException {
+        long theStartTime = System.nanoTime();
+        LuceneIndexHandler theHandler = createHandler(aConfigDirectory, aLean);
+        for (Content theContent : aContents) {
+            theHandler.addToIndex("location", theContent);
+        }
+        theHandler.shutdown();
+        return System.nanoTime() - theStartTime;
+    }
+
+    private static long sizeOf(File aDirectory) {
+        long theResult = 0;
+        for (File theFile : new File(aDirectory, "index").listFiles()) {
+            theResult += theFile.length();
+        }
+        return theResult;
+    }
+
+    private static void assertSearchFeaturesWork(LuceneIndexHandler aHandler, Configuration aConfiguration) throws IOException {
+        QueryResult theResult = aHandler.performQuery("quarterly", "", "", aConfiguration, Collections.emptyMap());
+        assertFalse(theResult.getDocuments().isEmpty());
+        assertTrue(theResult.getDocuments().get(0).getHighlightedSearchResult().contains("<B>quarterly</B>"));
+        assertFalse(theResult.getFacetDimensions().isEmpty());
+        assertTrue(aHandler.findSuggestionTermsFor("quarterly").length > 0);
+    }
+
+    @Test
+    public void testLeanSchemaIsSmaller() throws IOException {
+        List<Content> theContents = createContents();
+        File theFull = folder.newFolder("full");
+        File theLean = folder.newFolder("lean");
+
+        // Warm up
+        index(folder.newFolder("warmup"), true, theContents);
+
+        long theFullTime = index(theFull, false, theContents);
+        long theLeanTime = index(theLean, true, theContents);
+        long theFullSize = sizeOf(theFull);
+        long theLeanSize = sizeOf(theLean);
+
+        LOGGER.info("Indexing " + NUMBER_OF_DOCUMENTS + " documents: full schema " + theFullSize / 1024 + "kb in "
+                + theFullTime / 1000000 + "ms, lean schema " + theLeanSize / 1024 + "kb in " + theLeanTime / 1000000 + "ms");
+        assertTrue(theLeanSize < theFullSize);
+
+        Configuration theConfiguration = new ConfigurationManager(theLean).getConfiguration();
+        LuceneIndexHandler theHandler = createHandler(theLean, true);
+        try {
+            assertSearchFeaturesWork(theHandler, theConfiguration);
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testMigration() throws IOException {
+        List<Content> theContents = createContents();
+        File theConfigDirectory = folder.newFolder("index");
+        index(theConfigDirectory, false, theContents);
+
+        Configuration theConfiguration = new ConfigurationManager(theConfigDirectory).getConfiguration();
+        LuceneIndexHandler theHandler = createHandler(theConfigDirectory, true);
+        try {
+            assertEquals(NUMBER_OF_DOCUMENTS, theHandler.createSnapshot().getForcedUpdateCount());
+            assertEquals(NUMBER_OF_DOCUMENTS, theHandler.migrateSchema());
+            assertEquals(0, theHandler.migrateSchema());
+
+            IndexSnapshot theSnapshot = theHandler.createSnapshot();
+            assertEquals(NUMBER_OF_DOCUMENTS, theSnapshot.size());
+            assertEquals(0, theSnapshot.getForcedUpdateCount());
+            Content theFirst = theContents.get(0);
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theFirst.getFileName(), theFirst.getLastModified()));
+
+            assertSearchFeaturesWork(theHandler, theConfiguration);
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testMigrationOfDocumentsWithoutColumns() throws IOException {
+        File theConfigDirectory = folder.newFolder("index");
+        LuceneIndexHandler theHandler = createHandler(theConfigDirectory, false);
+        try {
+            // A document as written before the doc values columns were introduced
+            String theFileName = new File(folder.getRoot(), "report.txt").toString();
+            Document theDocument = new Document();
+            theDocument.add(new StringField(IndexFields.UNIQUEID, "report", Field.Store.YES));
+            theDocument.add(new StringField(IndexFields.FILENAME, theFileName, Field.Store.YES));
+            theDocument.add(new TextField(IndexFields.LANGUAGESTORED, SupportedLanguage.getDefault().name(), Field.Store.YES));
+            theDocument.add(new TextField(IndexFields.CONTENT, "quarterly report finance", Field.Store.YES));
+            theDocument.add(new TextField(IndexFields.CONTENTMD5, "md5", Field.Store.YES));
+            theDocument.add(new StringField(IndexFields.LOCATIONID, "location", Field.Store.YES));
+            theDocument.add(new LongField(IndexFields.FILESIZE, 24, Field.Store.YES));
+            theDocument.add(new LongField(IndexFields.LASTMODIFIED, 1000, Field.Store.YES));
+            theHandler.writeDocument(theFileName, theDocument);
+
+            // It is rewritten from the stored fields instead of being extracted again
+            assertEquals(1, theHandler.migrateSchema());
+            IndexSnapshot theSnapshot = theHandler.createSnapshot();
+            assertEquals(1, theSnapshot.size());
+            assertEquals(0, theSnapshot.getForcedUpdateCount());
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theFileName, 1000));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexSnapshotTest {
+
+    @Test
+    public void testCheckIfModified() {
+        IndexSnapshot.Builder theBuilder = new IndexSnapshot.Builder();
+        theBuilder.add("/data/b.txt", 20);
+        theBuilder.add("/data/a.txt", 10);
+        theBuilder.add("/data/ä.txt", 30);
+        theBuilder.add("/other/c.txt", 40);
+        IndexSnapshot theSnapshot = theBuilder.build();
+
+        assertEquals(4, theSnapshot.size());
+        assertEquals(UpdateCheckResult.UNMODIFIED, theSnapshot.checkIfModified("/data/a.txt", 10));
+        assertEquals(UpdateCheckResult.UPDATED, theSnapshot.checkIfModified("/data/b.txt", 21));
+        assertEquals(UpdateCheckResult.UNMODIFIED, theSnapshot.checkIfModified("/data/ä.txt", 30));
+        assertEquals(UpdateCheckResult.UPDATED, theSnapshot.checkIfModified("/data/new.txt", 10));
+    }
+
+    @Test
+    public void testManyEntries() {
+        List<Integer> theNumbers = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            theNumbers.add(i);
+        }
+        Collections.shuffle(theNumbers, new Random(42));
+        IndexSnapshot.Builder theBuilder = new IndexSnapshot.Builder();
+        for (int theNumber : theNumbers) {
+            theBuilder.add("/data/file" + theNumber + ".txt", theNumber);
+        }
+        IndexSnapshot theSnapshot = theBuilder.build();
+
+        assertEquals(5000, theSnapshot.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(UpdateCheckResult.UNMODIFIED, theSnapshot.checkIfModified("/data/file" + i + ".txt", i));
+        }
+        assertTrue(theSnapshot.getUnseenFileNames("/data/").isEmpty());
+    }
+
+    @Test
+    public void testDuplicatesAreUpdated() {
+        IndexSnapshot.Builder theBuilder = new IndexSnapshot.Builder();
+        theBuilder.add("/data/a.txt", 10);
+        theBuilder.add("/data/a.txt", 10);
+        IndexSnapshot theSnapshot = theBuilder.build();
+
+        assertEquals(1, theSnapshot.size());
+        assertEquals(UpdateCheckResult.UPDATED, theSnapshot.checkIfModified("/data/a.txt", 10));
+    }
+
+    @Test
+    public void testUnseenFileNames() {
+        IndexSnapshot.Builder theBuilder = new IndexSnapshot.Builder();
+        theBuilder.add("/data/a.txt", 10);
+        theBuilder.add("/data/b.txt", 20);
+        theBuilder.add("/data/c.txt", 30);
+        theBuilder.add("/other/d.txt", 40);
+        IndexSnapshot theSnapshot = theBuilder.build();
+
+        theSnapshot.checkIfModified("/data/a.txt", 11);
+        theSnapshot.markSeen("/data/c.txt");
+
+        List<String> theUnseen = theSnapshot.getUnseenFileNames("/data/");
+        assertEquals(1, theUnseen.size());
+        assertTrue(theUnseen.contains("/data/b.txt"));
+    }
+}
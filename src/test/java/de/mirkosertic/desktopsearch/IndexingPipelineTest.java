@@ -0,0 +1,118 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexingPipelineTest {
+
+    private static final IndexingPipeline.Step PASS_ON = aJob -> true;
+
+    private final Set<Path> written = Collections.synchronizedSet(new HashSet<>());
+    private final Set<Path> failed = Collections.synchronizedSet(new HashSet<>());
+
+    private IndexingPipeline createPipeline(IndexingPipeline.Step aChangeDetection, IndexingPipeline.Step aExtraction, IndexingPipeline.Step aIndexWriter) {
+        return new IndexingPipeline(aChangeDetection, aExtraction, PASS_ON, aJob -> {
+            if (aIndexWriter.process(aJob)) {
+                written.add(aJob.getFile());
+            }
+            return true;
+        }, (aJob, aException) -> failed.add(aJob.getFile()));
+    }
+
+    private static void submit(IndexingPipeline aPipeline, int aNumberOfJobs) throws InterruptedException {
+        for (int i = 0; i < aNumberOfJobs; i++) {
+            aPipeline.submit(new IndexingJob(null, Paths.get("/data/file" + i + ".txt"), false));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testJobsPassAllStages() throws InterruptedException {
+        IndexingPipeline thePipeline = createPipeline(PASS_ON, PASS_ON, PASS_ON);
+        assertTrue(thePipeline.isIdle());
+
+        submit(thePipeline, 5000);
+        thePipeline.awaitIdle();
+
+        assertTrue(thePipeline.isIdle());
+        assertEquals(5000, written.size());
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test(timeout = 60000)
+    public void testJobsNotPassedOnAreFinished() throws InterruptedException {
+        // Only every other file is modified
+        IndexingPipeline thePipeline = createPipeline(aJob -> aJob.getFile().toString().matches(".*[02468]\\.txt"), PASS_ON, PASS_ON);
+
+        submit(thePipeline, 100);
+        thePipeline.awaitIdle();
+
+        assertTrue(thePipeline.isIdle());
+        assertEquals(50, written.size());
+    }
+
+    @Test(timeout = 60000)
+    public void testFailedJobsAreReportedAndFinished() throws InterruptedException {
+        Path theBrokenFile = Paths.get("/data/file7.txt");
+        IndexingPipeline thePipeline = createPipeline(PASS_ON, aJob -> {
+            if (aJob.getFile().equals(theBrokenFile)) {
+                throw new IllegalStateException("Broken file");
+            }
+            return true;
+        }, PASS_ON);
+
+        submit(thePipeline, 10);
+        thePipeline.awaitIdle();
+
+        assertTrue(thePipeline.isIdle());
+        assertEquals(Collections.singleton(theBrokenFile), failed);
+        assertEquals(9, written.size());
+        assertFalse(written.contains(theBrokenFile));
+    }
+
+    @Test(timeout = 60000)
+    public void testNotIdleUntilTheLastStageIsDone() throws InterruptedException {
+        CountDownLatch theWriterStarted = new CountDownLatch(1);
+        CountDownLatch theWriterReleased = new CountDownLatch(1);
+        IndexingPipeline thePipeline = createPipeline(PASS_ON, PASS_ON, aJob -> {
+            theWriterStarted.countDown();
+            return theWriterReleased.await(60, TimeUnit.SECONDS);
+        });
+
+        submit(thePipeline, 1);
+        theWriterStarted.await();
+
+        // The job has left all queues, but it is not written yet
+        assertFalse(thePipeline.isIdle());
+
+        theWriterReleased.countDown();
+        thePipeline.awaitIdle();
+        assertTrue(thePipeline.isIdle());
+        assertEquals(1, written.size());
+    }
+}
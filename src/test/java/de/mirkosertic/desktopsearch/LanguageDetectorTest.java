@@ -0,0 +1,142 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.log4j.Logger;
+import org.apache.tika.language.LanguageIdentifier;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LanguageDetectorTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LanguageDetectorTest.class);
+
+    private static final String[][] SENTENCES = {
+            {"en", "The quick brown fox jumps over the lazy dog while the farmer is watching from the window. ",
+                    "Please send the quarterly report to the finance department before the end of the week. ",
+                    "We have been waiting for the train for almost an hour, and nobody knows when it will arrive. ",
+                    "The committee decided that the new building should be finished by the beginning of next year. ",
+                    "Although the weather was terrible, they went for a long walk along the river. "},
+            {"de", "Der schnelle braune Fuchs springt \u00fcber den faulen Hund, w\u00e4hrend der Bauer aus dem Fenster schaut. ",
+                    "Bitte schicken Sie den Quartalsbericht bis zum Ende der Woche an die Buchhaltung. ",
+                    "Wir warten schon seit fast einer Stunde auf den Zug, und niemand wei\u00df, wann er ankommt. ",
+                    "Der Ausschuss hat beschlossen, dass das neue Geb\u00e4ude bis Anfang n\u00e4chsten Jahres fertig sein soll. ",
+                    "Obwohl das Wetter schrecklich war, machten sie einen langen Spaziergang am Fluss entlang. "},
+            {"fr", "Le renard brun rapide saute par-dessus le chien paresseux pendant que le fermier regarde par la fen\u00eatre. ",
+                    "Veuillez envoyer le rapport trimestriel au service financier avant la fin de la semaine. ",
+                    "Nous attendons le train depuis presque une heure, et personne ne sait quand il arrivera. ",
+                    "Le comit\u00e9 a d\u00e9cid\u00e9 que le nouveau b\u00e2timent devait \u00eatre termin\u00e9 au d\u00e9but de l'ann\u00e9e prochaine. ",
+                    "Bien que le temps soit \u00e9pouvantable, ils ont fait une longue promenade le long de la rivi\u00e8re. "},
+            {"es", "El r\u00e1pido zorro marr\u00f3n salta sobre el perro perezoso mientras el granjero mira por la ventana. ",
+                    "Por favor, env\u00ede el informe trimestral al departamento de finanzas antes del final de la semana. ",
+                    "Llevamos casi una hora esperando el tren, y nadie sabe cu\u00e1ndo va a llegar. ",
+                    "El comit\u00e9 decidi\u00f3 que el nuevo edificio deber\u00eda estar terminado a principios del pr\u00f3ximo a\u00f1o. ",
+                    "Aunque el tiempo era terrible, dieron un largo paseo a lo largo del r\u00edo. "},
+            {"it", "La veloce volpe marrone salta sopra il cane pigro mentre il contadino guarda dalla finestra. ",
+                    "Si prega di inviare il rapporto trimestrale al reparto finanziario prima della fine della settimana. ",
+                    "Aspettiamo il treno da quasi un'ora, e nessuno sa quando arriver\u00e0. ",
+                    "Il comitato ha deciso che il nuovo edificio dovrebbe essere finito entro l'inizio del prossimo anno. ",
+                    "Anche se il tempo era terribile, hanno fatto una lunga passeggiata lungo il fiume. "},
+            {"nl", "De snelle bruine vos springt over de luie hond terwijl de boer uit het raam kijkt. ",
+                    "Stuur het kwartaalverslag alstublieft voor het einde van de week naar de financi\u00eble afdeling. ",
+                    "We wachten al bijna een uur op de trein, en niemand weet wanneer hij aankomt. ",
+                    "De commissie heeft besloten dat het nieuwe gebouw begin volgend jaar klaar moet zijn. ",
+                    "Hoewel het weer verschrikkelijk was, maakten ze een lange wandeling langs de rivier. "}};
+
+    private static List<String> createDocuments(int aCount, int aLength) {
+        Random theRandom = new Random(42);
+        List<String> theResult = new ArrayList<>();
+        for (int i = 0; i < aCount; i++) {
+            String[] theSentences = SENTENCES[i % SENTENCES.length];
+            StringBuilder theBuilder = new StringBuilder();
+            while (theBuilder.length() < aLength) {
+                theBuilder.append(theSentences[1 + theRandom.nextInt(theSentences.length - 1)]);
+            }
+            theResult.add(theBuilder.toString());
+        }
+        return theResult;
+    }
+
+    @Test
+    public void testSampleAgreesWithFullText() {
+        List<String> theDocuments = createDocuments(60, 100000);
+
+        // Warm up the profiles
+        new LanguageIdentifier(theDocuments.get(0));
+        LanguageDetector.identifySample(theDocuments.get(0));
+
+        int theAgreements = 0;
+        int theCorrectFull = 0;
+        int theCorrectSampled = 0;
+        long theFullTime = 0;
+        long theSampledTime = 0;
+        for (int i = 0; i < theDocuments.size(); i++) {
+            String theDocument = theDocuments.get(i);
+            long theStart = System.nanoTime();
+            String theFull = new LanguageIdentifier(theDocument).getLanguage();
+            theFullTime += System.nanoTime() - theStart;
+
+            theStart = System.nanoTime();
+            String theSampled = LanguageDetector.identifySample(theDocument).getLanguage();
+            theSampledTime += System.nanoTime() - theStart;
+
+            if (theFull.equals(theSampled)) {
+                theAgreements++;
+            }
+            if (SENTENCES[i % SENTENCES.length][0].equals(theFull)) {
+                theCorrectFull++;
+            }
+            if (SENTENCES[i % SENTENCES.length][0].equals(theSampled)) {
+                theCorrectSampled++;
+            }
+        }
+
+        LOGGER.info("Language detection of " + theDocuments.size() + " documents: full text "
+                + theFullTime / 1000000 + "ms, sampled " + theSampledTime / 1000000 + "ms, "
+                + theAgreements + " agreements, " + theCorrectFull + " correct with full text, "
+                + theCorrectSampled + " correct with sample");
+
+        assertTrue(theAgreements >= theDocuments.size() * 9 / 10);
+        assertTrue(theCorrectSampled >= theCorrectFull * 9 / 10);
+    }
+
+    @Test
+    public void testDirectoryCache() {
+        List<String> theDocuments = createDocuments(1, 10000);
+        LanguageDetector theDetector = new LanguageDetector();
+        Path theDirectory = Paths.get("folder");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("en", theDetector.detectLanguage(theDirectory.resolve("file" + i + ".txt"), theDocuments.get(0)));
+        }
+        assertTrue(theDetector.getDirectoryHits() > 0);
+        assertEquals(10, theDetector.getDetections() + theDetector.getDirectoryHits());
+
+        // Short texts are always profiled
+        LanguageDetector theOtherDetector = new LanguageDetector();
+        for (int i = 0; i < 10; i++) {
+            theOtherDetector.detectLanguage(theDirectory.resolve("file" + i + ".txt"), "short text");
+        }
+        assertEquals(0, theOtherDetector.getDirectoryHits());
+    }
+}
@@ -15,6 +15,10 @@
  */
 package de.mirkosertic.desktopsearch;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -23,7 +27,9 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
 import java.util.UUID;
 
 import org.junit.Rule;
@@ -55,4 +61,127 @@ public class LuceneIndexHandlerTest {
         }
         luceneIndexHandler.shutdown();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCheckIfModified() throws IOException, URISyntaxException {
+        URL resource = getClass().getResource("IMG_0653_resized.jpg");
+        Path theFile = Paths.get(resource.toURI());
+        ConfigurationManager configurationManager = new ConfigurationManager(folder.getRoot());
+        Configuration aConfiguration = configurationManager.getConfiguration();
+        ContentExtractor theExtractor = new ContentExtractor(aConfiguration);
+        BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        Content aContent = theExtractor.extractContentFrom(theFile, theAttributes);
+
+        AnalyzerCache theCache = new AnalyzerCache(aConfiguration);
+        LuceneIndexHandler luceneIndexHandler = new LuceneIndexHandler(aConfiguration, theCache, null, null);
+        try {
+            String theFileName = theFile.toString();
+            long theLastModified = theAttributes.lastModifiedTime().toMillis();
+            assertEquals(UpdateCheckResult.UPDATED, luceneIndexHandler.checkIfModified(theFileName, theLastModified));
+
+            luceneIndexHandler.addToIndex(UUID.randomUUID().toString(), aContent);
+            luceneIndexHandler.crawlingStarts();
+
+            assertEquals(UpdateCheckResult.UNMODIFIED, luceneIndexHandler.checkIfModified(theFileName, theLastModified));
+            assertEquals(UpdateCheckResult.UPDATED, luceneIndexHandler.checkIfModified(theFileName, theLastModified + 1));
+
+            IndexSnapshot theSnapshot = luceneIndexHandler.createSnapshot();
+            assertEquals(1, theSnapshot.size());
+            assertEquals(UpdateCheckResult.UNMODIFIED, theSnapshot.checkIfModified(theFileName, theLastModified));
+
+            assertEquals(Collections.singletonList(theFileName), luceneIndexHandler.getFileNamesBelow(theFile.getParent().getParent().toString()));
+            assertEquals(Collections.emptyList(), luceneIndexHandler.getFileNamesBelow(theFileName));
+        } finally {
+            luceneIndexHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadYourWrites() throws Exception {
+        URL resource = getClass().getResource("IMG_0653_resized.jpg");
+        Path theFile = Paths.get(resource.toURI());
+        // Without a waiting caller, the searcher would only be reopened after a minute
+        Configuration aConfiguration = TestConfiguration.load(folder.getRoot(), "searcherMaxStaleMillis", 60000);
+        ContentExtractor theExtractor = new ContentExtractor(aConfiguration);
+        BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        Content aContent = theExtractor.extractContentFrom(theFile, theAttributes);
+
+        AnalyzerCache theCache = new AnalyzerCache(aConfiguration);
+        LuceneIndexHandler luceneIndexHandler = new LuceneIndexHandler(aConfiguration, theCache, null, null);
+        try {
+            long theGeneration = luceneIndexHandler.addToIndex(UUID.randomUUID().toString(), aContent);
+            assertTrue(luceneIndexHandler.awaitGeneration(theGeneration, 10000));
+            assertTrue(luceneIndexHandler.checkIfExists(theFile.toString()));
+
+            theGeneration = luceneIndexHandler.removeFromIndex(theFile.toString());
+            assertTrue(luceneIndexHandler.awaitGeneration(theGeneration, 10000));
+            assertFalse(luceneIndexHandler.checkIfExists(theFile.toString()));
+        } finally {
+            luceneIndexHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueryResultsAreCachedPerSearcher() throws Exception {
+        URL resource = getClass().getResource("IMG_0653_resized.jpg");
+        Path theFile = Paths.get(resource.toURI());
+        ConfigurationManager configurationManager = new ConfigurationManager(folder.getRoot());
+        Configuration aConfiguration = configurationManager.getConfiguration();
+        ContentExtractor theExtractor = new ContentExtractor(aConfiguration);
+        BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        Content aContent = theExtractor.extractContentFrom(theFile, theAttributes);
+
+        AnalyzerCache theCache = new AnalyzerCache(aConfiguration);
+        LuceneIndexHandler luceneIndexHandler = new LuceneIndexHandler(aConfiguration, theCache, new ExecutorPool(), new PreviewProcessor());
+        try {
+            assertTrue(luceneIndexHandler.awaitGeneration(luceneIndexHandler.addToIndex(UUID.randomUUID().toString(), aContent), 10000));
+            QueryResultCache theResultCache = luceneIndexHandler.getQueryResultCache();
+
+            QueryResult theResult = luceneIndexHandler.performQuery("jpg", "", "", aConfiguration, Collections.emptyMap());
+            assertEquals(0, theResultCache.getHitCount());
+            QueryResult theCachedResult = luceneIndexHandler.performQuery(" JPG ", "", "", aConfiguration, Collections.emptyMap());
+            assertEquals(1, theResultCache.getHitCount());
+            assertSame(theResult.getDocuments(), theCachedResult.getDocuments());
+
+            // Another drilldown is another result
+            luceneIndexHandler.performQuery("jpg", "", "", aConfiguration, Collections.singletonMap("extension", "jpg"));
+            assertEquals(1, theResultCache.getHitCount());
+            assertEquals(2, theResultCache.getMissCount());
+
+            // A changed index invalidates all results
+            Path theCopy = folder.newFile("copy.jpg").toPath();
+            Files.copy(theFile, theCopy, StandardCopyOption.REPLACE_EXISTING);
+            Content theCopyContent = theExtractor.extractContentFrom(theCopy, Files.readAttributes(theCopy, BasicFileAttributes.class));
+            assertTrue(luceneIndexHandler.awaitGeneration(luceneIndexHandler.addToIndex(UUID.randomUUID().toString(), theCopyContent), 10000));
+            theResult = luceneIndexHandler.performQuery("jpg", "", "", aConfiguration, Collections.emptyMap());
+            assertEquals(1, theResultCache.getHitCount());
+            assertEquals(2, theResult.getDocuments().get(0).getFileNames().size());
+        } finally {
+            luceneIndexHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testMetaDataIsHighlighted() throws Exception {
+        URL resource = getClass().getResource("IMG_0653_resized.jpg");
+        Path theFile = Paths.get(resource.toURI());
+        ConfigurationManager configurationManager = new ConfigurationManager(folder.getRoot());
+        Configuration aConfiguration = configurationManager.getConfiguration();
+        ContentExtractor theExtractor = new ContentExtractor(aConfiguration);
+        BasicFileAttributes theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+        Content aContent = theExtractor.extractContentFrom(theFile, theAttributes);
+
+        AnalyzerCache theCache = new AnalyzerCache(aConfiguration);
+        LuceneIndexHandler luceneIndexHandler = new LuceneIndexHandler(aConfiguration, theCache, new ExecutorPool(), new PreviewProcessor());
+        try {
+            assertTrue(luceneIndexHandler.awaitGeneration(luceneIndexHandler.addToIndex(UUID.randomUUID().toString(), aContent), 10000));
+
+            // The image has no text content, the match is in the metadata value
+            QueryResult theResult = luceneIndexHandler.performQuery("jpg", "", "", aConfiguration, Collections.emptyMap());
+            String theHighlight = theResult.getDocuments().get(0).getHighlightedSearchResult();
+            assertTrue(theHighlight, theHighlight.contains("<B>"));
+        } finally {
+            luceneIndexHandler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MetadataNormalizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseDate() {
+        MetadataNormalizer theNormalizer = new MetadataNormalizer(new ConfigurationManager(folder.getRoot()).getConfiguration());
+        ZonedDateTime theExpected = ZonedDateTime.of(LocalDateTime.of(2014, 2, 20, 22, 30, 18), ZoneId.systemDefault());
+
+        assertEquals(theExpected, theNormalizer.parseDate("2014:02:20 22:30:18"));
+        assertEquals(theExpected, theNormalizer.parseDate("2014-02-20T22:30:18"));
+
+        assertNull(theNormalizer.parseDate("0000:00:00 00:00:00"));
+        assertNull(theNormalizer.parseDate("2014:02:30 22:30:18"));
+        assertNull(theNormalizer.parseDate("2014-02-20T22:30:18Z"));
+        assertNull(theNormalizer.parseDate("484 pixels"));
+        assertNull(theNormalizer.parseDate(""));
+    }
+
+    @Test
+    public void testNormalizeName() {
+        MetadataNormalizer theNormalizer = new MetadataNormalizer(new ConfigurationManager(folder.getRoot()).getConfiguration());
+        assertEquals("image-height", theNormalizer.normalizeName("Image Height"));
+        assertEquals("creation-date", theNormalizer.normalizeName("meta:creation-date"));
+        assertSame(theNormalizer.normalizeName("Image Height"), theNormalizer.normalizeName("Image Height"));
+    }
+}
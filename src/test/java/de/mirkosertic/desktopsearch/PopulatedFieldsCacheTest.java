@@ -0,0 +1,72 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PopulatedFieldsCacheTest {
+
+    private static void addDocument(TestIndex aIndex, String aField, String aContent) throws IOException {
+        Document theDocument = new Document();
+        theDocument.add(new TextField(aField, aContent, Field.Store.NO));
+        aIndex.addDocument(theDocument);
+    }
+
+    @Test
+    public void testOnlyPopulatedFieldsAreRouted() throws IOException {
+        PopulatedFieldsCache theCache = new PopulatedFieldsCache(new String[] {"content", "content_de", "content_en"});
+        try (TestIndex theIndex = new TestIndex(theCache)) {
+            addDocument(theIndex, "content_en", "hello world");
+            addDocument(theIndex, "content_en", "hello again");
+            theIndex.refresh();
+
+            IndexSearcher theSearcher = theIndex.acquire();
+            String[] theFields = theCache.getPopulatedFields(theSearcher.getIndexReader());
+            assertArrayEquals(new String[] {"content_en"}, theFields);
+            assertSame(theFields, theCache.getPopulatedFields(theSearcher.getIndexReader()));
+            assertEquals(2, (int) theCache.getDocumentCounts().get("content_en"));
+            assertEquals(0, (int) theCache.getDocumentCounts().get("content_de"));
+
+            // Only fields containing all required terms need to be queried
+            QueryParser theParser = new QueryParser(new StandardAnalyzer());
+            assertTrue(theParser.mayMatch("hello world", "content_en", theSearcher.getIndexReader()));
+            assertTrue(theParser.mayMatch("hello wor* -missing", "content_en", theSearcher.getIndexReader()));
+            assertFalse(theParser.mayMatch("hello missing", "content_en", theSearcher.getIndexReader()));
+            theIndex.release(theSearcher);
+
+            addDocument(theIndex, "content", "unknown language");
+            theIndex.refresh();
+            theSearcher = theIndex.acquire();
+            assertArrayEquals(new String[] {"content", "content_en"}, theCache.getPopulatedFields(theSearcher.getIndexReader()));
+            theIndex.release(theSearcher);
+
+            assertEquals(5, theCache.getSkippedFieldCount());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProximityQueryTest {
+
+    private static final String FIELD = "field";
+
+    private static final String[] DOCUMENTS = new String[] {
+            "alpha beta gamma",
+            "beta alpha gamma",
+            "alpha one two beta",
+            "alpha one two three four five six seven beta",
+            "alpha one two three four five six seven eight nine ten eleven twelve beta",
+            "gamma delta",
+            "alpha beta one two alpha three beta",
+            "beta one alpha",
+            "alpha",
+            // Frequent terms far apart only score by the terms and the coordination factor
+            repeat("alpha", 200) + repeat("filler", 30) + repeat("beta", 200),
+            "alpha one two three four five six seven eight nine beta",
+            repeat("alpha", 20) + "gamma " + repeat("beta", 20)
+    };
+
+    private static String repeat(String aTerm, int aCount) {
+        StringBuilder theResult = new StringBuilder();
+        for (int i = 0; i < aCount; i++) {
+            theResult.append(aTerm).append(" ");
+        }
+        return theResult.toString();
+    }
+
+    private static Query spanQueryFor(String... aTerms) {
+        SpanQuery[] theSpans = new SpanQuery[aTerms.length];
+        for (int i = 0; i < aTerms.length; i++) {
+            theSpans[i] = new SpanTermQuery(new Term(FIELD, aTerms[i]));
+        }
+        BooleanQuery theResult = new BooleanQuery();
+        SpanQuery theExactMatchQuery = new SpanNearQuery(theSpans, 0, true);
+        theExactMatchQuery.setBoost(ProximityQuery.EXACT_MATCH_BOOST);
+        theResult.add(theExactMatchQuery, BooleanClause.Occur.SHOULD);
+        for (int theSlop = 0; theSlop < ProximityQuery.MAX_EDIT_DISTANCE; theSlop++) {
+            SpanQuery theNearQuery = new SpanNearQuery(theSpans, theSlop, false);
+            theNearQuery.setBoost(ProximityQuery.slopBoost(theSlop));
+            theResult.add(theNearQuery, BooleanClause.Occur.SHOULD);
+        }
+        for (String theTerm : aTerms) {
+            theResult.add(new TermQuery(new Term(FIELD, theTerm)), BooleanClause.Occur.MUST);
+        }
+        return theResult;
+    }
+
+    private static List<Integer> ranking(IndexSearcher aSearcher, Query aQuery) throws IOException {
+        List<Integer> theResult = new ArrayList<>();
+        for (ScoreDoc theDoc : aSearcher.search(aQuery, DOCUMENTS.length).scoreDocs) {
+            theResult.add(theDoc.doc);
+        }
+        return theResult;
+    }
+
+    private static void assertSameScores(IndexSearcher aSearcher, Query aExpected, Query aActual) throws IOException {
+        Map<Integer, Float> theExpected = new HashMap<>();
+        for (ScoreDoc theDoc : aSearcher.search(aExpected, DOCUMENTS.length).scoreDocs) {
+            theExpected.put(theDoc.doc, theDoc.score);
+        }
+        Map<Integer, Float> theActual = new HashMap<>();
+        for (ScoreDoc theDoc : aSearcher.search(aActual, DOCUMENTS.length).scoreDocs) {
+            theActual.put(theDoc.doc, theDoc.score);
+        }
+        assertEquals(theExpected.keySet(), theActual.keySet());
+        for (Map.Entry<Integer, Float> theEntry : theExpected.entrySet()) {
+            float theScore = theEntry.getValue();
+            assertEquals("Score of document " + theEntry.getKey(), theScore, theActual.get(theEntry.getKey()), theScore * 1e-5);
+        }
+        assertEquals(ranking(aSearcher, aExpected), ranking(aSearcher, aActual));
+    }
+
+    @Test
+    public void testSameRankingAsSpans() throws IOException {
+        RAMDirectory theDirectory = new RAMDirectory();
+        IndexWriterConfig theConfig = new IndexWriterConfig(new StandardAnalyzer());
+        theConfig.setSimilarity(new CustomSimilarity());
+        try (IndexWriter theWriter = new IndexWriter(theDirectory, theConfig)) {
+            for (String theText : DOCUMENTS) {
+                Document theDocument = new Document();
+                theDocument.add(new TextField(FIELD, theText, Field.Store.NO));
+                theWriter.addDocument(theDocument);
+            }
+        }
+
+        QueryParser theParser = new QueryParser(new StandardAnalyzer());
+        try (DirectoryReader theReader = DirectoryReader.open(theDirectory)) {
+            IndexSearcher theSearcher = new IndexSearcher(theReader);
+
+            Query theQuery = theParser.parse("alpha beta", FIELD);
+            assertEquals("+proximity(field:\"alpha beta\")", theQuery.toString());
+            assertSameScores(theSearcher, spanQueryFor("alpha", "beta"), theQuery);
+            // The exact match beats the unordered one, the far apart terms rank by their frequency
+            List<Integer> theExpected = ranking(theSearcher, theQuery);
+            assertTrue(theExpected.indexOf(0) < theExpected.indexOf(1));
+            assertTrue(theExpected.indexOf(9) < theExpected.indexOf(4));
+
+            assertSameScores(theSearcher, spanQueryFor("beta", "alpha"), theParser.parse("beta alpha", FIELD));
+            assertSameScores(theSearcher, spanQueryFor("alpha"), theParser.parse("alpha", FIELD));
+            assertSameScores(theSearcher, spanQueryFor("alpha", "beta", "gamma"), theParser.parse("alpha beta gamma", FIELD));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class QueryResultCacheTest {
+
+    private final Configuration configuration = new Configuration(null);
+
+    private static QueryResult resultWith(String aHighlightedText) {
+        List<QueryResultDocument> theDocuments = new ArrayList<>();
+        theDocuments.add(new QueryResultDocument(1, "file.txt", CompletableFuture.completedFuture(aHighlightedText), 0, 5, "id", false));
+        return new QueryResult(10, theDocuments, Collections.emptyList(), 1, null);
+    }
+
+    private QueryResultCache.Key keyFor(String aQueryString) {
+        return new QueryResultCache.Key(aQueryString, Collections.emptyMap(), null, "/search", configuration);
+    }
+
+    private static void addDocument(TestIndex aIndex, String aId) throws IOException {
+        Document theDocument = new Document();
+        theDocument.add(new StringField("id", aId, Field.Store.NO));
+        aIndex.addDocument(theDocument);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals(QueryResultCache.normalize("Hello  World"), QueryResultCache.normalize("+hello world"));
+        assertNotEquals(QueryResultCache.normalize("hello world"), QueryResultCache.normalize("world hello"));
+        assertNotEquals(QueryResultCache.normalize("hello world"), QueryResultCache.normalize("hello -world"));
+        assertNull(QueryResultCache.normalize(""));
+    }
+
+    @Test
+    public void testEvictionAndInvalidation() throws IOException {
+        QueryResultCache theCache = new QueryResultCache(2, 10000);
+        try (TestIndex theIndex = new TestIndex(theCache)) {
+            addDocument(theIndex, "1");
+            theIndex.refresh();
+            IndexSearcher theSearcher = theIndex.acquire();
+            IndexReader theReader = theSearcher.getIndexReader();
+
+            QueryResult theResult = resultWith("text");
+            theCache.put(theReader, keyFor("a"), theResult);
+            theCache.put(theReader, keyFor("b"), resultWith("text"));
+            assertSame(theResult, theCache.get(theReader, keyFor("A")));
+
+            // b is the least recently used
+            theCache.put(theReader, keyFor("c"), resultWith("text"));
+            assertNull(theCache.get(theReader, keyFor("b")));
+            assertNotNull(theCache.get(theReader, keyFor("a")));
+            assertEquals(2, theCache.size());
+
+            // Too large results are not kept, large ones evict others
+            char[] theText = new char[4800];
+            theCache.put(theReader, keyFor("d"), resultWith(new String(theText)));
+            assertEquals(1, theCache.size());
+            assertNotNull(theCache.get(theReader, keyFor("d")));
+            theCache.put(theReader, keyFor("e"), resultWith(new String(new char[6000])));
+            assertNull(theCache.get(theReader, keyFor("e")));
+            theIndex.release(theSearcher);
+
+            addDocument(theIndex, "2");
+            theIndex.refresh();
+            assertEquals(0, theCache.size());
+            theSearcher = theIndex.acquire();
+            assertNull(theCache.get(theSearcher.getIndexReader(), keyFor("d")));
+            theIndex.release(theSearcher);
+
+            assertEquals(3, theCache.getHitCount());
+            assertEquals(3, theCache.getMissCount());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes a setting to the configuration file of a directory, like a user editing it would.
+ */
+class TestConfiguration {
+
+    private TestConfiguration() {
+    }
+
+    static Configuration load(File aConfigDirectory, String aSetting, Object aValue) throws IOException {
+        // Writes the default configuration if there is none
+        new ConfigurationManager(aConfigDirectory);
+
+        File theFile = new File(aConfigDirectory, "configuration.json");
+        ObjectMapper theMapper = new ObjectMapper();
+        ObjectNode theConfiguration = (ObjectNode) theMapper.readTree(theFile);
+        theConfiguration.put(aSetting, theMapper.valueToTree(aValue));
+        theMapper.writeValue(theFile, theConfiguration);
+        return new ConfigurationManager(aConfigDirectory).getConfiguration();
+    }
+}
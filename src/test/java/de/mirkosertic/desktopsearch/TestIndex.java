@@ -0,0 +1,66 @@
+/**
+ * FreeDesktopSearch - A Search Engine for your Desktop
+ * Copyright (C) 2013 Mirko Sertic
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An index in memory with a searcher manager notifying the cache under test.
+ */
+class TestIndex implements Closeable {
+
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+
+    TestIndex(ReferenceManager.RefreshListener aListener) throws IOException {
+        writer = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(new StandardAnalyzer()));
+        searcherManager = new SearcherManager(writer, true, new SearcherFactory());
+        searcherManager.addListener(aListener);
+    }
+
+    void addDocument(Iterable<? extends IndexableField> aDocument) throws IOException {
+        writer.addDocument(aDocument);
+    }
+
+    void refresh() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    IndexSearcher acquire() throws IOException {
+        return searcherManager.acquire();
+    }
+
+    void release(IndexSearcher aSearcher) throws IOException {
+        searcherManager.release(aSearcher);
+    }
+
+    @Override
+    public void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+    }
+}